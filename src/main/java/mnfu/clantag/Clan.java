@@ -1,7 +1,21 @@
 package mnfu.clantag;
 
-import java.util.LinkedHashSet;
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
-public record Clan(String name, UUID leader, LinkedHashSet<UUID> officers, LinkedHashSet<UUID> members, String hexColor, boolean isClosed) {
-}
\ No newline at end of file
+/**
+ * @param id never changes, not even on rename. clans stored before ids existed get one derived from their
+ *           name, so loading the same file twice gives the same ids
+ */
+public record Clan(UUID id, String name, UUID leader, UuidSet officers, UuidSet members, String hexColor, boolean isClosed) {
+
+    public Clan {
+        if (id == null && name != null) id = legacyId(name);
+        if (officers == null) officers = UuidSet.of();
+        if (members == null) members = UuidSet.of();
+    }
+
+    public static UUID legacyId(String clanName) {
+        return UUID.nameUUIDFromBytes(("clan:" + ClanManager.canonicalize(clanName)).getBytes(StandardCharsets.UTF_8));
+    }
+}
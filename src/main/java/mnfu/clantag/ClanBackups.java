@@ -0,0 +1,269 @@
+package mnfu.clantag;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import mnfu.clantag.storage.ClanGson;
+import mnfu.clantag.storage.ClanJsonReader;
+import mnfu.clantag.storage.CorruptClanDataException;
+import org.slf4j.Logger;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.core.DB;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compressed backups of the clans and the player cache in {@code config/clans/backups}, one zip per backup.
+ *
+ * <p>Each backup holds the clans as clans.json, whatever the storage mode, plus copies of player_cache.db
+ * and (in SQLITE mode) clans.db made with SQLite's online backup, so they are consistent while in use.
+ * The server thread only copies the clans map, everything else happens on a low priority background thread.
+ * Only the newest {@link ClanTagConfig#backupRetention} backups are kept.</p>
+ */
+public class ClanBackups {
+    private static final Path DIRECTORY = Path.of("config/clans/backups");
+    private static final Path PLAYER_CACHE = Path.of("config/clans/player_cache.db");
+    private static final Path CLANS_DATABASE = Path.of("config/clans/clans.db");
+    private static final String PREFIX = "clans-";
+    private static final String SUFFIX = ".zip";
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    private final ClanManager clanManager;
+    private final ClanTagConfig config;
+    private final Logger logger;
+    private final Gson gson;
+    private final ScheduledExecutorService executor;
+
+    private record Contents(Map<UUID, Clan> clans, byte[] playerCache) {}
+
+    public ClanBackups(ClanManager clanManager, ClanTagConfig config, Logger logger) {
+        this.clanManager = clanManager;
+        this.config = config;
+        this.logger = logger;
+        this.gson = ClanGson.create(false, logger); // compressed anyway, nobody edits it in place
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ClanTag Backup");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts taking backups every {@link ClanTagConfig#backupIntervalMinutes}, if enabled. The clans are
+     * copied at the end of a tick through {@link MainThreadExecutor}, within its budget like other queued work.
+     */
+    public void start() {
+        if (config.backupIntervalMinutes <= 0) return;
+        executor.scheduleWithFixedDelay(() -> backupAsync(MainThreadExecutor.get()), // failures are logged, the next one still runs
+                config.backupIntervalMinutes, config.backupIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Waits a few seconds for a running backup to finish, then stops the backup thread.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Backup still running on shutdown, it will be left incomplete");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes a backup now.
+     *
+     * @param serverThread runs tasks on the server thread, where the clans are copied
+     * @return the name of the new backup
+     */
+    public CompletableFuture<String> backupAsync(Executor serverThread) {
+        return CompletableFuture.supplyAsync(clanManager::snapshot, serverThread)
+                .thenApplyAsync(clans -> {
+                    try {
+                        return write(clans);
+                    } catch (IOException | SQLException e) {
+                        logger.error("Failed to back up clans", e);
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+    }
+
+    /**
+     * @return names of the existing backups, newest first
+     */
+    public CompletableFuture<List<String>> listAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return list();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Replaces every clan and the player cache with the contents of a backup. The current state is
+     * backed up first, so a restore can be undone.
+     *
+     * @param serverThread runs tasks on the server thread, where the clans are replaced
+     * @return the number of clans restored
+     */
+    public CompletableFuture<Integer> restoreAsync(String name, Executor serverThread) {
+        Path backup = DIRECTORY.resolve(name);
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX) || !backup.getParent().equals(DIRECTORY)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Not a backup: " + name));
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return read(backup); // before backing up, in case rotation would delete it
+            } catch (IOException | JsonParseException | CorruptClanDataException e) {
+                logger.error("Failed to read backup {}", name, e);
+                throw new CompletionException(e);
+            }
+        }, executor).thenCompose(contents -> backupAsync(serverThread).thenApplyAsync(ignored -> {
+            if (!clanManager.importClans(contents.clans())) {
+                throw new CompletionException(new IOException("Restored clans could not be saved"));
+            }
+            return clanManager.clanCount();
+        }, serverThread).thenApplyAsync(count -> {
+            // only once the clans are in, so a failed import leaves both as they were
+            if (contents.playerCache() != null) restorePlayerCache(contents.playerCache(), name);
+            logger.info("Restored {} clan(s) from backup {}", count, name);
+            return count;
+        }, executor));
+    }
+
+    private String write(Map<UUID, Clan> clans) throws IOException, SQLException {
+        Files.createDirectories(DIRECTORY);
+        String name = PREFIX + LocalDateTime.now().format(TIMESTAMP) + SUFFIX;
+        Path temp = Files.createTempFile(DIRECTORY, name, ".tmp");
+        try {
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(temp))) {
+                zip.putNextEntry(new ZipEntry("clans.json"));
+                zip.write(gson.toJson(clans).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+
+                if (Files.exists(PLAYER_CACHE)) addDatabase(zip, PLAYER_CACHE);
+                if (config.storageMode == ClanTagConfig.StorageMode.SQLITE && Files.exists(CLANS_DATABASE)) {
+                    addDatabase(zip, CLANS_DATABASE);
+                }
+            }
+            Files.move(temp, DIRECTORY.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        rotate();
+        logger.info("Backed up {} clan(s) to {}", clans.size(), name);
+        return name;
+    }
+
+    /**
+     * copies a database that may be in use through a connection of our own, so the copy is consistent.
+     */
+    private void addDatabase(ZipOutputStream zip, Path database) throws IOException, SQLException {
+        Path copy = Files.createTempFile(DIRECTORY, database.getFileName().toString(), ".tmp");
+        try {
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+                copyDatabase(connection, copy, false);
+            }
+            zip.putNextEntry(new ZipEntry(database.getFileName().toString()));
+            Files.copy(copy, zip);
+            zip.closeEntry();
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    /**
+     * Copies a connection's database to a file, or replaces it with a file's contents, through SQLite's
+     * backup API. The path is handed over as is, the {@code backup to} and {@code restore from} statements
+     * can't quote every path a server may be in.
+     *
+     * @param restore true to copy the file into the connection's database, false to copy the database to the file
+     */
+    static void copyDatabase(Connection connection, Path file, boolean restore) throws SQLException {
+        DB db = connection.unwrap(SQLiteConnection.class).getDatabase();
+        String path = file.toAbsolutePath().toString();
+        int result = restore ? db.restore("main", path, null) : db.backup("main", path, null);
+        if (result != SQLiteErrorCode.SQLITE_OK.code) {
+            throw new SQLException((restore ? "Failed to restore from " : "Failed to back up to ") + path
+                    + ": " + SQLiteErrorCode.getErrorCode(result), null, result);
+        }
+    }
+
+    private Contents read(Path backup) throws IOException {
+        Map<UUID, Clan> clans = null;
+        byte[] playerCache = null;
+        Path temp = Files.createTempFile(DIRECTORY, "clans.json", ".tmp");
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(backup))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                switch (entry.getName()) {
+                    case "clans.json" -> {
+                        Files.copy(zip, temp, StandardCopyOption.REPLACE_EXISTING);
+                        clans = ClanJsonReader.readClans(temp, null, logger);
+                    }
+                    case "player_cache.db" -> playerCache = zip.readAllBytes();
+                    default -> {} // clans.db is only kept for recovering by hand, clans.json holds the same clans
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        if (clans == null) throw new IOException(backup.getFileName() + " holds no clans");
+        return new Contents(clans, playerCache);
+    }
+
+    private void restorePlayerCache(byte[] database, String name) {
+        PersistentPlayerCache cache = PersistentPlayerCache.getInstance();
+        if (cache == null) return;
+        try {
+            Path temp = Files.createTempFile(DIRECTORY, "player_cache.db", ".tmp");
+            try {
+                Files.write(temp, database);
+                cache.restoreFrom(temp);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException | SQLException e) {
+            logger.error("Failed to restore player cache from {}, keeping the current one", name, e);
+        }
+    }
+
+    private List<String> list() throws IOException {
+        if (!Files.isDirectory(DIRECTORY)) return List.of();
+        try (Stream<Path> files = Files.list(DIRECTORY)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .sorted(Comparator.reverseOrder()) // timestamps sort by age
+                    .toList();
+        }
+    }
+
+    private void rotate() throws IOException {
+        List<String> backups = list();
+        for (String name : backups.subList(Math.min(config.backupRetention, backups.size()), backups.size())) {
+            Files.deleteIfExists(DIRECTORY.resolve(name));
+        }
+    }
+}
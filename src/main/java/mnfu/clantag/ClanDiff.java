@@ -0,0 +1,91 @@
+package mnfu.clantag;
+
+import java.util.*;
+
+/**
+ * What changed between two versions of the clans, such as before and after a reload.
+ *
+ * @param added ids of clans that only exist after
+ * @param removed ids of clans that only existed before
+ * @param changed ids of clans that exist in both but differ in any way, including renamed ones
+ * @param movedPlayers players who are in a different clan, including players who joined or left one
+ */
+public record ClanDiff(Set<UUID> added, Set<UUID> removed, Set<UUID> changed, Set<UUID> movedPlayers) {
+
+    public static ClanDiff between(Map<UUID, Clan> clansBefore, Map<UUID, Membership> playersBefore,
+                                   Map<UUID, Clan> clansAfter, Map<UUID, Membership> playersAfter) {
+        Set<UUID> added = new HashSet<>();
+        Set<UUID> changed = new HashSet<>();
+        for (Map.Entry<UUID, Clan> entry : clansAfter.entrySet()) {
+            Clan before = clansBefore.get(entry.getKey());
+            if (before == null) {
+                added.add(entry.getKey());
+            } else if (!before.equals(entry.getValue())) {
+                changed.add(entry.getKey());
+            }
+        }
+        Set<UUID> removed = new HashSet<>(clansBefore.keySet());
+        removed.removeAll(clansAfter.keySet());
+
+        Set<UUID> movedPlayers = new HashSet<>();
+        for (Map.Entry<UUID, Membership> entry : playersAfter.entrySet()) {
+            Membership before = playersBefore.get(entry.getKey());
+            // a promotion or demotion isn't a move
+            if (before == null || !before.clanId().equals(entry.getValue().clanId())) {
+                movedPlayers.add(entry.getKey());
+            }
+        }
+        for (UUID uuid : playersBefore.keySet()) {
+            if (!playersAfter.containsKey(uuid)) movedPlayers.add(uuid);
+        }
+        return new ClanDiff(added, removed, changed, movedPlayers);
+    }
+
+    /**
+     * Like {@link #between}, but only looks at the given clans and players, for when nothing else can
+     * differ, such as after a few changes to those clans. Costs nothing per member of those clans, only per
+     * clan and player given.
+     *
+     * @param players every player who may have joined, left or switched clans
+     */
+    public static ClanDiff between(Map<UUID, Clan> clansBefore, Map<UUID, Membership> playersBefore,
+                                   Map<UUID, Clan> clansAfter, Map<UUID, Membership> playersAfter,
+                                   Collection<UUID> clanIds, Collection<UUID> players) {
+        Set<UUID> added = new HashSet<>();
+        Set<UUID> removed = new HashSet<>();
+        Set<UUID> changed = new HashSet<>();
+        for (UUID clanId : clanIds) {
+            Clan before = clansBefore.get(clanId);
+            Clan after = clansAfter.get(clanId);
+            if (before == null && after == null) continue;
+            if (before == null) {
+                added.add(clanId);
+            } else if (after == null) {
+                removed.add(clanId);
+            } else if (!before.equals(after)) {
+                changed.add(clanId);
+            }
+        }
+
+        Set<UUID> movedPlayers = new HashSet<>();
+        for (UUID uuid : players) {
+            Membership before = playersBefore.get(uuid);
+            Membership after = playersAfter.get(uuid);
+            // a promotion or demotion isn't a move
+            if (before == null ? after != null : after == null || !before.clanId().equals(after.clanId())) {
+                movedPlayers.add(uuid);
+            }
+        }
+        return new ClanDiff(added, removed, changed, movedPlayers);
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty() && movedPlayers.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return added.size() + " added, " + removed.size() + " removed, " + changed.size() + " changed, "
+                + movedPlayers.size() + " player(s) moved";
+    }
+}
@@ -0,0 +1,95 @@
+package mnfu.clantag;
+
+import mnfu.clantag.storage.ClanStore;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Reloads the clans when their file is edited by hand while the server runs, so admins don't have to
+ * run {@code /clan admin reload} themselves. Only watches when the store has a file meant for editing,
+ * and ignores writes made by the store itself.
+ */
+public class ClanFileWatcher {
+    private static final long DEBOUNCE_MILLIS = 500; // editors often write a file in several steps
+
+    private final ClanStore store;
+    private final ClanManager clanManager;
+    private final Logger logger;
+    private WatchService watchService;
+    private Thread thread;
+
+    public ClanFileWatcher(ClanStore store, ClanManager clanManager, Logger logger) {
+        this.store = store;
+        this.clanManager = clanManager;
+        this.logger = logger;
+    }
+
+    public void start() {
+        Path file = store.editableFile();
+        if (file == null) {
+            logger.warn("watchClansFile is on, but the storage mode has no file to watch");
+            return;
+        }
+        Path dir = file.toAbsolutePath().getParent();
+        try {
+            Files.createDirectories(dir);
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException e) {
+            logger.error("Failed to watch {} for changes", file, e);
+            return;
+        }
+
+        thread = new Thread(() -> watch(file.getFileName()), "ClanTag Watcher");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Watching {} for changes", file);
+    }
+
+    public void close() {
+        if (watchService == null) return;
+        try {
+            watchService.close(); // wakes the watcher thread, which then exits
+        } catch (IOException e) {
+            logger.warn("Failed to stop watching clans file", e);
+        }
+    }
+
+    private void watch(Path fileName) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean touched = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW || fileName.equals(event.context())) touched = true;
+                }
+                key.reset();
+                if (!touched) continue;
+
+                // wait for the edit to settle, swallowing the events it causes
+                WatchKey more;
+                while ((more = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+                if (store.changedOnDisk()) {
+                    reload(); // only the swap runs on the server thread
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    private void reload() {
+        logger.info("Clans file was edited, reloading");
+        clanManager.reloadAsync(MainThreadExecutor.get()).whenComplete((diff, error) -> {
+            if (error != null) logger.warn("Failed to reload edited clans file: {}", error.getMessage());
+        });
+    }
+}
@@ -1,38 +1,298 @@
 package mnfu.clantag;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
-import com.google.gson.reflect.TypeToken;
 
 import mnfu.clantag.commands.InviteManager;
+import mnfu.clantag.storage.ClanGson;
+import mnfu.clantag.storage.ClanJsonReader;
+import mnfu.clantag.storage.ClanStore;
+import mnfu.clantag.storage.CorruptClanDataException;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.io.*;
-import java.lang.reflect.Type;
-import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.text.Normalizer;
 import java.util.*;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Owns the clans and every index over them.
+ *
+ * <p>All of it lives in one immutable {@link State}, published through a single volatile field. A change
+ * builds the next state from the current one and swaps it in, and changes are serialized by locking the
+ * manager. Readers never lock: each lookup reads the field once, so it sees one consistent version, and
+ * any method can be called from any thread.</p>
+ *
+ * <p>Code that decides on a change from clans it read earlier, like a command after an async name lookup,
+ * should {@link #submit} a {@link ClanRequest} that states what it read, rather than call the mutators.</p>
+ */
 public class ClanManager {
-    private final File file;
     private final Gson gson;
-    private final Map<String, Clan> clans = new HashMap<>(); // key: canonical clan name
-    private final Map<UUID, String> playerToClanName = new HashMap<>(); // key: player uuid
+    private volatile State state = State.EMPTY;
+    private final AtomicBoolean reloading = new AtomicBoolean();
+    private final Queue<Submitted> queue = new ConcurrentLinkedQueue<>(); // changes waiting for the writer
+    private final AtomicBoolean draining = new AtomicBoolean(); // whether the writer has a drain coming up
+    private final ExecutorService writer;
+    private final List<Consumer<ClanDiff>> listeners = new CopyOnWriteArrayList<>();
+    private static final int RELOAD_ATTEMPTS = 3;
     private final Logger logger;
     private final InviteManager inviteManager;
-    private static boolean ENABLE_SAVES = true;
+    private final ClanStore store;
+    private static volatile boolean ENABLE_SAVES = true;
     private final boolean loadedSuccessfully;
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}");
+    private static final int CANONICAL_CACHE_SIZE = 1024;
+    private static final Map<String, String> canonicalCache = new ConcurrentHashMap<>(); // non-ascii inputs only
     public enum JoinPolicy{OPEN, INVITE_ONLY}
 
-    public ClanManager(File file, Logger logger, InviteManager inviteManager) {
+    /**
+     * One version of the clans and the indexes over them, kept in line with each other. Never modified
+     * once published.
+     *
+     * @param clans keyed by clan id
+     * @param clanIds clan ids keyed by canonical clan name
+     * @param roles each clan's shared memberships, keyed by clan id
+     * @param memberships keyed by player uuid
+     * @param version bumped on every change, so a reload can tell it went stale
+     */
+    private record State(HashTrieMap<UUID, Clan> clans, HashTrieMap<String, UUID> clanIds,
+                         HashTrieMap<UUID, Membership.Roles> roles, UuidIndex<Membership> memberships, long version) {
+        static final State EMPTY = new State(HashTrieMap.of(), HashTrieMap.of(), HashTrieMap.of(), UuidIndex.of(), 0);
+
+        static State of(ClanResolver.Result resolved, long version) {
+            return new State(resolved.clans(), resolved.clanIds(), resolved.roles(), resolved.memberships(), version);
+        }
+    }
+
+    /**
+     * The next state, while a writer builds it. The maps are persistent, so each change only copies the
+     * few trie nodes it touches, never a whole map. Several changes can go into one draft.
+     */
+    private static final class Draft {
+        private final long baseVersion;
+        private HashTrieMap<UUID, Clan> clans;
+        private HashTrieMap<String, UUID> clanIds;
+        private HashTrieMap<UUID, Membership.Roles> roles;
+        private UuidIndex<Membership> memberships;
+
+        /** the clans as a map {@link ClanMutation#applyTo} can change, each change swapping in the next version */
+        private final Map<UUID, Clan> writableClans = new AbstractMap<>() {
+            @Override
+            public Clan get(Object key) {
+                return clans.get(key);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return clans.containsKey(key);
+            }
+
+            @Override
+            public Clan put(UUID key, Clan value) {
+                Clan old = clans.get(key);
+                clans = clans.with(key, value);
+                return old;
+            }
+
+            @Override
+            public Clan remove(Object key) {
+                Clan old = clans.get(key);
+                clans = clans.without(key);
+                return old;
+            }
+
+            @Override
+            public Set<Entry<UUID, Clan>> entrySet() {
+                return clans.entrySet();
+            }
+        };
+
+        Draft(State base) {
+            this.baseVersion = base.version();
+            this.clans = base.clans();
+            this.clanIds = base.clanIds();
+            this.roles = base.roles();
+            this.memberships = base.memberships();
+        }
+
+        @Nullable
+        Clan clan(UUID clanId) {
+            return clans.get(clanId);
+        }
+
+        @Nullable
+        UUID clanIdOf(String canonicalName) {
+            return clanIds.get(canonicalName);
+        }
+
+        boolean nameTaken(String canonicalName) {
+            return clanIds.containsKey(canonicalName);
+        }
+
+        Membership.Roles rolesOf(UUID clanId) {
+            return roles.get(clanId);
+        }
+
+        @Nullable
+        Membership membership(UUID player) {
+            return memberships.get(player);
+        }
+
+        boolean inAClan(UUID player) {
+            return memberships.containsKey(player);
+        }
+
+        Map<UUID, Clan> clans() {
+            return writableClans;
+        }
+
+        void putClanId(String canonicalName, UUID clanId) {
+            clanIds = clanIds.with(canonicalName, clanId);
+        }
+
+        void removeClanId(String canonicalName) {
+            clanIds = clanIds.without(canonicalName);
+        }
+
+        void putRoles(UUID clanId, Membership.Roles clanRoles) {
+            roles = roles.with(clanId, clanRoles);
+        }
+
+        void removeRoles(UUID clanId) {
+            roles = roles.without(clanId);
+        }
+
+        void putMembership(UUID player, Membership membership) {
+            memberships = memberships.with(player, membership);
+        }
+
+        void removeMembership(UUID player) {
+            memberships = memberships.without(player);
+        }
+
+        State build() {
+            return build(baseVersion + 1);
+        }
+
+        /**
+         * @return the draft as it is now, to start a nested draft from
+         */
+        State view() {
+            return build(baseVersion);
+        }
+
+        private State build(long version) {
+            return new State(clans, clanIds, roles, memberships, version);
+        }
+    }
+
+    /**
+     * a {@link ClanTransaction} working on a draft, which only gets published if the body finishes.
+     */
+    private static final class Transaction implements ClanTransaction {
+        private final Draft draft;
+        private final List<ClanMutation> applied = new ArrayList<>();
+        private boolean over;
+
+        Transaction(Draft draft) {
+            this.draft = draft;
+        }
+
+        ClanTransaction.Result run(Consumer<ClanTransaction> body) {
+            try {
+                body.accept(this);
+                return new ClanTransaction.Result(true, null);
+            } catch (Rollback rollback) {
+                return new ClanTransaction.Result(false, rollback.failure);
+            } finally {
+                over = true;
+            }
+        }
+
+        @Override
+        public Clan getClan(String clanName) {
+            checkOpen();
+            UUID clanId = draft.clanIdOf(canonicalize(clanName));
+            return clanId != null ? draft.clan(clanId) : null;
+        }
+
+        @Override
+        public Clan getClanById(UUID clanId) {
+            checkOpen();
+            return draft.clan(clanId);
+        }
+
+        @Override
+        public Clan getPlayerClan(UUID playerUUID) {
+            checkOpen();
+            Membership membership = draft.membership(playerUUID);
+            return membership != null ? draft.clan(membership.clanId()) : null;
+        }
+
+        @Override
+        public Clan apply(ClanMutation mutation) {
+            checkOpen();
+            if (!allowed(draft, mutation)) throw new Rollback(null);
+            applied.add(mutation);
+            return ClanManager.apply(draft, mutation);
+        }
+
+        @Override
+        public void require(boolean condition, String failure) {
+            checkOpen();
+            if (!condition) throw new Rollback(failure);
+        }
+
+        private void checkOpen() {
+            if (over) throw new IllegalStateException("The batch this transaction belongs to is over");
+        }
+    }
+
+    /**
+     * unwinds a transaction body. never escapes the manager.
+     */
+    private static final class Rollback extends RuntimeException {
+        @Nullable
+        final String failure;
+
+        Rollback(@Nullable String failure) {
+            super(failure, null, false, false);
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * a request or a batch waiting for the writer, along with the future to complete with its outcome.
+     */
+    private record Submitted(@Nullable ClanRequest request, @Nullable Consumer<ClanTransaction> batch,
+                             CompletableFuture<?> result) {}
+
+    public ClanManager(ClanStore store, Logger logger, InviteManager inviteManager) {
         this.logger = logger;
-        this.file = file;
         this.inviteManager = inviteManager;
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.gson = ClanGson.create(true, logger); // only for exports, the store does its own writing
+        this.store = store;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ClanTag Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
         loadedSuccessfully = load();
     }
 
@@ -45,93 +305,35 @@ public class ClanManager {
      *
      * @return true if clan was created, false if clan was not created
      */
-    public boolean createClan(String clanName, UUID leaderUuid) {
-        if (!containsAllowedChars(clanName)) return false;
-        String canonicalName = canonicalize(clanName);
-        if (isABannedName(canonicalName)) return false;
-        if (clans.containsKey(canonicalName)) return false;
-        LinkedHashSet<UUID> members = new LinkedHashSet<>();
-        members.add(leaderUuid);
-
-        Clan clan = new Clan(clanName, leaderUuid, new LinkedHashSet<>(), members, "#FFFFFF", true);
-        clans.put(canonicalName, clan);
-        playerToClanName.put(leaderUuid, clan.name());
-        save();
-
-        inviteManager.clearInvitesForPlayer(leaderUuid);
-        return true;
+    public synchronized boolean createClan(String clanName, UUID leaderUuid) {
+        return applyIfAllowed(new ClanMutation.Create(UUID.randomUUID(), clanName, leaderUuid));
     }
 
-    public boolean deleteClan(String clanName) {
-        String canonicalName = canonicalize(clanName);
-        Clan clan = clans.get(canonicalName);
-        if (clan == null) return false;
-        for (UUID memberUuid : clan.members()) {
-            playerToClanName.remove(memberUuid);
-        }
-        clans.remove(canonicalName);
-        save();
-        inviteManager.clearInvitesForClan(clanName);
-        return true;
+    public synchronized boolean deleteClan(UUID clanId) {
+        return applyIfAllowed(new ClanMutation.Delete(clanId));
     }
 
-    public void addMember(String clanName, UUID memberUuid) {
-        String canonicalName = canonicalize(clanName);
-        Clan clan = clans.get(canonicalName);
-        if (clan == null) return;
-        LinkedHashSet<UUID> members = new LinkedHashSet<>(clan.members());
-        if (members.contains(memberUuid)) return;
-        members.add(memberUuid);
-
-        Clan updatedClan = new Clan(clan.name(), clan.leader(), clan.officers(), members, clan.hexColor(), clan.isClosed());
-        clans.put(canonicalName, updatedClan);
-        playerToClanName.put(memberUuid, updatedClan.name());
-        save();
-
-        inviteManager.clearInvitesForPlayer(memberUuid);
+    /**
+     * @return false if the clan no longer exists or the player is already in a clan, true if success
+     */
+    public synchronized boolean addMember(UUID clanId, UUID memberUuid) {
+        return applyIfAllowed(new ClanMutation.AddMember(clanId, memberUuid));
     }
 
-    public void removeMember(String clanName, UUID memberUUID) {
-        String canonicalName = canonicalize(clanName);
-        Clan clan = clans.get(canonicalName);
-        if (clan == null) return;
-        LinkedHashSet<UUID> members = new LinkedHashSet<>(clan.members());
-        LinkedHashSet<UUID> officers = new LinkedHashSet<>(clan.officers());
-        if (!members.contains(memberUUID)) return;
-        members.remove(memberUUID);
-        officers.remove(memberUUID);
-
-        Clan updatedClan = new Clan(clan.name(), clan.leader(), officers, members, clan.hexColor(), clan.isClosed());
-        clans.put(canonicalName, updatedClan);
-        playerToClanName.remove(memberUUID);
-        save();
+    /**
+     * @return false if the player is not in the clan or leads it, true if success
+     */
+    public synchronized boolean removeMember(UUID clanId, UUID memberUUID) {
+        return applyIfAllowed(new ClanMutation.RemoveMember(clanId, memberUUID));
     }
 
     // i think maybe in the future, we may allow custom roles, but this 95% duplicated code is fine for now.
-    public void addOfficer(String clanName, UUID memberUuid) {
-        String canonicalName = canonicalize(clanName);
-        Clan clan = clans.get(canonicalName);
-        if (clan == null) return;
-        LinkedHashSet<UUID> officers = new LinkedHashSet<>(clan.officers());
-        if (officers.contains(memberUuid)) return;
-        officers.add(memberUuid);
-
-        Clan updatedClan = new Clan(clan.name(), clan.leader(), officers, clan.members(), clan.hexColor(), clan.isClosed());
-        clans.put(canonicalName, updatedClan);
-        save();
+    public synchronized boolean addOfficer(UUID clanId, UUID memberUuid) {
+        return applyIfAllowed(new ClanMutation.AddOfficer(clanId, memberUuid));
     }
 
-    public void removeOfficer(String clanName, UUID memberUuid) {
-        String canonicalName = canonicalize(clanName);
-        Clan clan = clans.get(canonicalName);
-        if (clan == null) return;
-        LinkedHashSet<UUID> officers = new LinkedHashSet<>(clan.officers());
-        if (!officers.contains(memberUuid)) return;
-        officers.remove(memberUuid);
-
-        Clan updatedClan = new Clan(clan.name(), clan.leader(), officers, clan.members(), clan.hexColor(), clan.isClosed());
-        clans.put(canonicalName, updatedClan);
-        save();
+    public synchronized boolean removeOfficer(UUID clanId, UUID memberUuid) {
+        return applyIfAllowed(new ClanMutation.RemoveOfficer(clanId, memberUuid));
     }
 
     /**
@@ -139,247 +341,585 @@ public class ClanManager {
      *
      * @return false if player is not currently in the clan, true if success
      */
-    public boolean transferLeader(String clanName, UUID newLeaderUUID) {
-        String canonicalName = canonicalize(clanName);
-        Clan clan = clans.get(canonicalName);
-        if (clan == null) return false; // could not find clan in memory or whatev
-        if (!clan.members().contains(newLeaderUUID)) return false;
-        LinkedHashSet<UUID> officers = new LinkedHashSet<>(clan.officers());
-        officers.remove(newLeaderUUID);
-
-        Clan updatedClan = new Clan(clan.name(), newLeaderUUID, officers, clan.members(), clan.hexColor(), clan.isClosed());
-        clans.put(canonicalName, updatedClan);
-        save();
-        return true;
+    public synchronized boolean transferLeader(UUID clanId, UUID newLeaderUUID) {
+        return applyIfAllowed(new ClanMutation.TransferLeader(clanId, newLeaderUUID));
     }
 
     /**
      *
-     * @param clanName name of the clan to change the color of
+     * @param clanId id of the clan to change the color of
      * @param hexColor the hex code of some color
      * @return true if successfully changed color, false if failed
      */
-    public boolean changeColor(String clanName, String hexColor) {
+    public synchronized boolean changeColor(UUID clanId, String hexColor) {
         if (hexColor.charAt(0) != '#') hexColor = "#" + hexColor;
-        String canonicalName = canonicalize(clanName);
-        Clan clan = clans.get(canonicalName);
-        if (clan == null) return false;
-        Clan updatedClan = new Clan(clan.name(), clan.leader(), clan.officers(), clan.members(), hexColor, clan.isClosed());
-        clans.put(canonicalName, updatedClan);
-        save();
-        return true;
+        return applyIfAllowed(new ClanMutation.ChangeColor(clanId, hexColor));
     }
 
-    public void changePolicy(String clanName, JoinPolicy joinPolicy) {
-        String canonicalName = canonicalize(clanName);
-        Clan clan = clans.get(canonicalName);
-        if (clan == null) return;
-        if (joinPolicy == null) return;
+    /**
+     * @return false if the clan no longer exists, true if success
+     */
+    public synchronized boolean changePolicy(UUID clanId, JoinPolicy joinPolicy) {
+        if (joinPolicy == null) return false;
         boolean newPolicy = joinPolicy != JoinPolicy.OPEN;
-        Clan updatedClan = new Clan(clan.name(), clan.leader(), clan.officers(), clan.members(), clan.hexColor(), newPolicy);
-        clans.put(canonicalName, updatedClan);
-        save();
+
+        return applyIfAllowed(new ClanMutation.ChangePolicy(clanId, newPolicy));
     }
 
-    public boolean changeName(String clanName, String newClanName) {
-        String canonicalName = canonicalize(clanName);
-        Clan clan = clans.get(canonicalName);
-        if (clan == null) return false;
-        if (!containsAllowedChars(newClanName)) return false;
-        String canonicalNewClanName = canonicalize(newClanName);
-        if (isABannedName(canonicalNewClanName)) return false;
-        if (clans.containsKey(canonicalNewClanName)) return false;
-
-        Clan updatedClan = new Clan(newClanName, clan.leader(), clan.officers(), clan.members(), clan.hexColor(), clan.isClosed());
-        clans.remove(canonicalName);
-        clans.put(canonicalNewClanName, updatedClan);
-        for (UUID uuid : clan.members()) {
-            playerToClanName.put(uuid, updatedClan.name());
-        }
-        save();
-        inviteManager.clearInvitesForClan(clan.name());
+    /**
+     * Renames a clan. Members and pending invites refer to the clan by id, so they stay as they are.
+     */
+    public synchronized boolean changeName(UUID clanId, String newClanName) {
+        return applyIfAllowed(new ClanMutation.ChangeName(clanId, newClanName));
+    }
+
+    /**
+     * Queues a change for the manager's writer thread, which applies queued changes one after another.
+     * Each one's check and the manager's own rules see every change queued before it, and nothing else
+     * can change the clans in between, so callers don't need to lock anything.
+     *
+     * <p>Whatever is queued by the time the writer gets to it is applied as one new version of the clans.</p>
+     *
+     * @return completes on the writer thread once the change was applied or turned down. if the check
+     * throws, it completes with that exception
+     */
+    public CompletableFuture<ClanRequest.Result> submit(ClanRequest request) {
+        return enqueue(new Submitted(request, null, new CompletableFuture<ClanRequest.Result>()));
+    }
+
+    /**
+     * Applies several changes as one, on the calling thread: either all of them, as one new version of the
+     * clans with one write to storage and one call to each listener, or none of them.
+     *
+     * @param body makes the changes. if it throws, nothing is applied and the exception is passed on
+     */
+    public synchronized ClanTransaction.Result batch(Consumer<ClanTransaction> body) {
+        Draft draft = new Draft(state);
+        Transaction transaction = new Transaction(draft);
+        ClanTransaction.Result result = transaction.run(body);
+        if (result.committed() && !transaction.applied.isEmpty()) publish(draft, transaction.applied);
+        return result;
+    }
+
+    /**
+     * Like {@link #batch}, but queued for the writer thread like {@link #submit}, for callers that decide on
+     * the changes from clans they read earlier.
+     *
+     * @return completes on the writer thread. if the body throws, it completes with that exception
+     */
+    public CompletableFuture<ClanTransaction.Result> submitBatch(Consumer<ClanTransaction> body) {
+        return enqueue(new Submitted(null, body, new CompletableFuture<ClanTransaction.Result>()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> enqueue(Submitted submitted) {
+        queue.add(submitted);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                queue.remove(submitted);
+                submitted.result().completeExceptionally(new IllegalStateException("The clan manager is closed", e));
+            }
+        }
+        return (CompletableFuture<T>) submitted.result();
+    }
+
+    /**
+     * applies everything queued so far as one new state, then completes the futures. runs on the writer.
+     */
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        do {
+            List<Submitted> drained = new ArrayList<>();
+            List<Object> outcomes = new ArrayList<>(); // a result, or the exception a check or batch threw
+            synchronized (this) {
+                Draft draft = new Draft(state);
+                List<ClanMutation> applied = new ArrayList<>();
+                for (Submitted submitted; (submitted = queue.poll()) != null; ) {
+                    drained.add(submitted);
+                    try {
+                        if (submitted.request() != null) {
+                            ClanMutation mutation = submitted.request().mutation();
+                            String failure = submitted.request().check().failure(draft.clan(mutation.clanId()));
+                            if (failure == null && allowed(draft, mutation)) {
+                                outcomes.add(new ClanRequest.Result(true, null, apply(draft, mutation)));
+                                applied.add(mutation);
+                            } else {
+                                outcomes.add(new ClanRequest.Result(false, failure, draft.clan(mutation.clanId())));
+                            }
+                        } else {
+                            // a nested draft, so a rolled back batch leaves the others' changes alone
+                            Draft nested = new Draft(draft.view());
+                            Transaction transaction = new Transaction(nested);
+                            ClanTransaction.Result result = transaction.run(submitted.batch());
+                            if (result.committed()) {
+                                draft = nested;
+                                applied.addAll(transaction.applied);
+                            }
+                            outcomes.add(result);
+                        }
+                    } catch (RuntimeException e) {
+                        outcomes.add(e);
+                    }
+                }
+                if (!applied.isEmpty()) publish(draft, applied);
+            }
+            for (int i = 0; i < drained.size(); i++) {
+                CompletableFuture<Object> result = (CompletableFuture<Object>) drained.get(i).result();
+                if (outcomes.get(i) instanceof RuntimeException e) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(outcomes.get(i));
+                }
+            }
+            draining.set(false);
+        } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    /**
+     * Calls the listener with what changed, once per new version of the clans: after every change, batch,
+     * drain of the queue, load, reload and import. It's called on the thread that made the change while that
+     * thread holds the manager's lock, so it should be quick and mustn't change clans itself.
+     */
+    public void addListener(Consumer<ClanDiff> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * applies a mutation on its own if the manager's rules allow it. callers hold the lock.
+     *
+     * @return true if it was applied
+     */
+    private boolean applyIfAllowed(ClanMutation mutation) {
+        Draft draft = new Draft(state);
+        if (!allowed(draft, mutation)) return false;
+        apply(draft, mutation);
+        publish(draft, List.of(mutation));
         return true;
     }
 
+    /**
+     * the rules every change has to follow, whoever asks for it: names must be allowed and free, and every
+     * player is in at most one clan, which always keeps its leader.
+     */
+    private static boolean allowed(Draft draft, ClanMutation mutation) {
+        Clan clan = draft.clan(mutation.clanId());
+        return switch (mutation) {
+            case ClanMutation.Create create -> clan == null && nameAllowed(draft, create.clanName()) && !draft.inAClan(create.leader());
+            case ClanMutation.Delete ignored -> clan != null;
+            case ClanMutation.AddMember add -> clan != null && !draft.inAClan(add.player()); // already in this clan or another one
+            case ClanMutation.RemoveMember remove -> clan != null && clan.members().contains(remove.player()) && !remove.player().equals(clan.leader());
+            case ClanMutation.AddOfficer add -> clan != null && clan.members().contains(add.player()) && !clan.officers().contains(add.player());
+            case ClanMutation.RemoveOfficer remove -> clan != null && clan.officers().contains(remove.player());
+            case ClanMutation.TransferLeader transfer -> clan != null && clan.members().contains(transfer.newLeader());
+            case ClanMutation.ChangeColor ignored -> clan != null;
+            case ClanMutation.ChangePolicy ignored -> clan != null;
+            case ClanMutation.ChangeName rename -> clan != null && nameAllowed(draft, rename.newClanName());
+        };
+    }
+
+    private static boolean nameAllowed(Draft draft, String clanName) {
+        if (!containsAllowedChars(clanName)) return false;
+        String canonicalName = canonicalize(clanName);
+        return !isABannedName(canonicalName) && !draft.nameTaken(canonicalName);
+    }
+
+    /**
+     * applies a mutation to the draft and updates its indexes. callers check the rules first, so the
+     * mutation is expected to apply.
+     */
+    private static Clan apply(Draft draft, ClanMutation mutation) {
+        Clan before = draft.clan(mutation.clanId());
+        Clan result = mutation.applyTo(draft.clans());
+        index(draft, mutation, before, result);
+        return result;
+    }
+
+    /**
+     * publishes a draft, then hands its mutations to the store and drops invites they made pointless.
+     * callers hold the lock.
+     */
+    private void publish(Draft draft, List<ClanMutation> applied) {
+        State before = state;
+        state = draft.build();
+        save(applied);
+        Set<UUID> clanIds = new HashSet<>();
+        Set<UUID> players = new HashSet<>(); // the only ones a mutation can move, so rosters aren't walked
+        for (ClanMutation mutation : applied) {
+            clanIds.add(mutation.clanId());
+            switch (mutation) {
+                case ClanMutation.Create create -> {
+                    inviteManager.clearInvitesForPlayer(create.leader());
+                    players.add(create.leader());
+                }
+                case ClanMutation.Delete delete -> {
+                    inviteManager.clearInvitesForClan(delete.clanId());
+                    // members who joined in this batch are already in from their AddMember
+                    Clan deleted = before.clans().get(delete.clanId());
+                    if (deleted != null) players.addAll(deleted.members());
+                }
+                case ClanMutation.AddMember add -> {
+                    inviteManager.clearInvitesForPlayer(add.player());
+                    players.add(add.player());
+                }
+                case ClanMutation.RemoveMember remove -> players.add(remove.player());
+                default -> {}
+            }
+        }
+        notifyListeners(ClanDiff.between(before.clans(), before.memberships(), state.clans(), state.memberships(), clanIds, players));
+    }
+
+    /**
+     * callers hold the lock.
+     */
+    private void notifyListeners(ClanDiff diff) {
+        if (diff.isEmpty()) return;
+        for (Consumer<ClanDiff> listener : listeners) {
+            try {
+                listener.accept(diff);
+            } catch (RuntimeException e) {
+                logger.error("Clan change listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * updates the name index and the player index for a mutation that was just applied to the draft.
+     */
+    private static void index(Draft draft, ClanMutation mutation, @Nullable Clan before, @Nullable Clan after) {
+        UUID clanId = mutation.clanId();
+        if (mutation instanceof ClanMutation.Delete) {
+            if (before == null) return;
+            for (UUID uuid : before.members()) {
+                draft.removeMembership(uuid);
+            }
+            draft.removeClanId(canonicalize(before.name()));
+            draft.removeRoles(clanId);
+            return;
+        }
+        if (after == null) return; // didn't apply
+
+        Membership.Roles clanRoles = draft.rolesOf(clanId);
+        switch (mutation) {
+            case ClanMutation.Create create -> {
+                clanRoles = new Membership.Roles(clanId);
+                draft.putRoles(clanId, clanRoles);
+                draft.putClanId(canonicalize(after.name()), clanId);
+                draft.putMembership(create.leader(), clanRoles.get(Membership.Role.LEADER));
+            }
+            case ClanMutation.ChangeName rename -> {
+                draft.removeClanId(canonicalize(before.name()));
+                draft.putClanId(canonicalize(rename.newClanName()), clanId);
+            }
+            case ClanMutation.AddMember add -> draft.putMembership(add.player(), clanRoles.get(Membership.Role.MEMBER));
+            case ClanMutation.RemoveMember remove -> draft.removeMembership(remove.player());
+            case ClanMutation.AddOfficer add -> draft.putMembership(add.player(), clanRoles.get(Membership.Role.OFFICER));
+            case ClanMutation.RemoveOfficer remove -> draft.putMembership(remove.player(), clanRoles.get(Membership.Role.MEMBER));
+            case ClanMutation.TransferLeader transfer -> {
+                draft.putMembership(before.leader(), clanRoles.get(Membership.Role.MEMBER));
+                draft.putMembership(transfer.newLeader(), clanRoles.get(Membership.Role.LEADER));
+            }
+            case ClanMutation.Delete ignored -> {} // handled above
+            case ClanMutation.ChangeColor ignored -> {}
+            case ClanMutation.ChangePolicy ignored -> {}
+        }
+    }
+
     @Nullable
     public Clan getClan(String clanName) {
-        return clans.get(canonicalize(clanName));
+        State current = state;
+        UUID clanId = current.clanIds().get(canonicalize(clanName));
+        if (clanId == null) return null;
+        return current.clans().get(clanId);
+    }
+
+    @Nullable
+    public Clan getClanById(UUID clanId) {
+        return state.clans().get(clanId);
     }
 
     @Nullable
     public Clan getPlayerClan(UUID playerUUID) {
-        String clanName = playerToClanName.get(playerUUID);
-        if (clanName == null) return null;
-        return getClan(clanName);
+        State current = state;
+        Membership membership = current.memberships().get(playerUUID);
+        if (membership == null) return null;
+        return current.clans().get(membership.clanId());
+    }
+
+    /**
+     * @return the player's clan id and rank in it, or null if they're not in a clan
+     */
+    @Nullable
+    public Membership getMembership(UUID playerUUID) {
+        return state.memberships().get(playerUUID);
     }
 
     public boolean playerInAClan(UUID playerUUID) {
-        String clanName = playerToClanName.get(playerUUID);
-        return clanName != null;
+        return state.memberships().containsKey(playerUUID);
     }
 
     public int clanCount() {
-        return clans.size();
+        return state.clans().size();
     }
 
     /**
-     * WARNING: Returns actual hashmap. Try to use ClanManager for modifications instead of directly modifying things.
-     * @return clans Hashmap (String, Clan)
+     * @return every clan keyed by clan id, as of now. read-only, and later changes don't show up in it
      */
-    public Map<String, Clan> getClansMap() {
-        return clans;
+    public Map<UUID, Clan> getClansMap() {
+        return state.clans();
     }
 
     /**
-     * WARNING: Returns actual clan records. Try to use ClanManager for modifications instead of directly modifying things.
-     * @return clans Hashmap values (each value is a clan record object)
+     * @return every clan as of now. read-only, and later changes don't show up in it
      */
     public Collection<Clan> getAllClans() {
-        return clans.values();
+        return state.clans().values();
     }
 
     /**
-     * WARNING: Returns actual keyset. Try to use ClanManager for modifications instead of directly modifying things.
-     * @return clans Hashmap keySet (each key is a canonical clan name as a string)
+     * @return canonical names of every clan as of now. read-only, and later changes don't show up in it
      */
     public Collection<String> getAllClansCanonicalNames() {
-        return clans.keySet();
+        return state.clanIds().keySet();
     }
 
-    public boolean load() {
-        if (!file.exists()) return false;
-
-        try (Reader reader = new FileReader(file)) {
-            Type type = new TypeToken<Map<String, Clan>>() {}.getType();
-            Map<String, Clan> raw = gson.fromJson(reader, type);
-            if (raw == null) return false;
-
-            Map<String, Clan> tempClans = new HashMap<>();
-            Map<UUID, String> tempPlayerToClan = new HashMap<>();
-
-            for (Map.Entry<String, Clan> entry : raw.entrySet()) {
-                try {
-                    processRawClan(entry.getValue(), tempClans, tempPlayerToClan);
-                } catch (Exception e) {
-                    logger.error("Error processing clan {}. Skipping.", entry.getKey(), e);
-                }
-            }
+    /**
+     * Loads the clans from the store on the calling thread, replacing the current ones.
+     *
+     * @return true if clans were loaded, false if there were none or they couldn't be read
+     */
+    public synchronized boolean load() {
+        try {
+            ClanResolver.Result loaded = readStore();
+            if (loaded == null) return false;
 
-            clans.clear();
-            clans.putAll(tempClans);
-            playerToClanName.clear();
-            playerToClanName.putAll(tempPlayerToClan);
-            ENABLE_SAVES = true;
+            State before = state;
+            swap(loaded);
+            notifyListeners(ClanDiff.between(before.clans(), before.memberships(), state.clans(), state.memberships()));
             return true;
 
-        } catch (IOException | JsonParseException e) {
+        } catch (IOException | JsonParseException | CorruptClanDataException e) {
             ENABLE_SAVES = e instanceof IOException;
-            logger.error("Failed to load clans.json", e);
+            logger.error("Failed to load clans", e);
             return false;
         }
     }
 
-    private void processRawClan(Clan raw, Map<String, Clan> tempClans, Map<UUID, String> tempPlayerToClan) {
-        if (raw == null || raw.leader() == null) return;
+    /**
+     * Loads the clans from the store without stalling the server. Reading and checking them happens on a
+     * background thread, then they replace the current clans in one step on the server thread, and only
+     * invites to clans that are gone and of players who moved are dropped.
+     *
+     * <p>If a clan changes while the reload is running, the loaded clans are out of date and the reload
+     * starts over, up to {@value #RELOAD_ATTEMPTS} times.</p>
+     *
+     * @param serverThread runs tasks on the server thread
+     * @return what the reload changed, completed on the server thread
+     */
+    public CompletableFuture<ClanDiff> reloadAsync(Executor serverThread) {
+        if (!reloading.compareAndSet(false, true)) {
+            return CompletableFuture.failedFuture(new IllegalStateException("A reload is already running"));
+        }
+        return reloadAsync(serverThread, 1).whenComplete((diff, error) -> reloading.set(false));
+    }
 
-        String clanName = raw.name();
-        UUID leaderUuid = raw.leader();
-        LinkedHashSet<UUID> cleanedMembers = new LinkedHashSet<>();
-        LinkedHashSet<UUID> cleanedOfficers = new LinkedHashSet<>();
+    private CompletableFuture<ClanDiff> reloadAsync(Executor serverThread, int attempt) {
+        State before = state; // never modified, so the background thread can compare against it directly
 
-        if (raw.members() != null) {
-            for (UUID uuid : raw.members()) {
-                if (uuid == null) continue;
-                ConflictResult result = resolveConflict(uuid, leaderUuid, tempClans, tempPlayerToClan);
-                if (result == ConflictResult.SKIP_CLAN) return;
-                if (result == ConflictResult.SKIP_MEMBER) continue;
-                tempPlayerToClan.put(uuid, clanName);
-                cleanedMembers.add(uuid);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                ClanResolver.Result loaded = readStore();
+                if (loaded == null) throw new CompletionException(new NoSuchFileException("No stored clans found"));
+                return Map.entry(loaded, ClanDiff.between(before.clans(), before.memberships(), loaded.clans(), loaded.memberships()));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).handleAsync((prepared, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof JsonParseException || cause instanceof CorruptClanDataException) ENABLE_SAVES = false;
+                logger.error("Failed to reload clans", cause);
+                return CompletableFuture.<ClanDiff>failedFuture(cause);
             }
-        }
-
-        // leader must always be present
-        if (!cleanedMembers.contains(leaderUuid)) {
-            cleanedMembers.add(leaderUuid);
-            tempPlayerToClan.put(leaderUuid, clanName);
-        }
 
-        if (raw.officers() != null) {
-            for (UUID uuid : raw.officers()) {
-                if (uuid == null) continue;
-                ConflictResult result = resolveConflict(uuid, leaderUuid, tempClans, tempPlayerToClan);
-                if (result == ConflictResult.SKIP_CLAN) return;
-                if (result == ConflictResult.SKIP_MEMBER) continue;
-                if (!cleanedMembers.contains(uuid)) {
-                    cleanedMembers.add(uuid);
-                    tempPlayerToClan.put(uuid, clanName);
+            ClanDiff diff = prepared.getValue();
+            synchronized (this) {
+                if (state.version() != before.version()) {
+                    if (attempt >= RELOAD_ATTEMPTS) {
+                        return CompletableFuture.<ClanDiff>failedFuture(new ConcurrentModificationException("Clans kept changing during reload"));
+                    }
+                    return reloadAsync(serverThread, attempt + 1);
+                }
+                swap(prepared.getKey());
+                for (UUID clanId : diff.removed()) {
+                    inviteManager.clearInvitesForClan(clanId);
                 }
-                cleanedOfficers.add(uuid);
+                for (UUID uuid : diff.movedPlayers()) {
+                    if (playerInAClan(uuid)) inviteManager.clearInvitesForPlayer(uuid);
+                }
+                notifyListeners(diff);
             }
-        }
+            logger.info("Reloaded clans: {}", diff);
+            return CompletableFuture.completedFuture(diff);
+        }, serverThread).thenCompose(future -> future);
+    }
 
-        tempClans.put(canonicalize(clanName),
-                new Clan(clanName, leaderUuid, cleanedOfficers, cleanedMembers, raw.hexColor(), raw.isClosed()));
+    /**
+     * reads and checks the stored clans. doesn't touch the current state, so it can run on any thread.
+     */
+    @Nullable
+    private ClanResolver.Result readStore() throws IOException {
+        Map<UUID, Clan> raw = store.loadAll();
+        if (raw == null) return null;
+        ClanResolver.Result resolved = ClanResolver.resolve(raw.values(), logger);
+        raw.clear(); // the resolved clans reuse what they can from raw, drop the rest
+        return resolved;
     }
 
-    private enum ConflictResult { OK, SKIP_MEMBER, SKIP_CLAN }
+    /**
+     * publishes freshly loaded clans. callers hold the lock.
+     */
+    private void swap(ClanResolver.Result loaded) {
+        state = State.of(loaded, state.version() + 1);
+        store.reset(state.clans()); // anything not yet written is older than what we just read
+        ENABLE_SAVES = true;
+    }
 
-    private ConflictResult resolveConflict(UUID uuid, UUID currentLeader,
-                                           Map<String, Clan> tempClans, Map<UUID, String> tempPlayerToClan) {
-        String existingClanName = tempPlayerToClan.get(uuid);
-        if (existingClanName == null) return ConflictResult.OK;
+    /**
+     * Writes every clan to a pretty printed json file, whatever the storage mode or snapshot format.
+     *
+     * @return true if the file was written
+     */
+    public boolean exportJson(File exportFile) {
+        try {
+            Files.createDirectories(exportFile.toPath().toAbsolutePath().getParent());
+            Files.writeString(exportFile.toPath(), gson.toJson(state.clans()), StandardCharsets.UTF_8);
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to export clans to {}", exportFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Replaces every clan with the ones in a json file in the clans.json format, and saves them.
+     * The file goes through the same checks as loading does.
+     *
+     * @return true if the file was imported and saved, false if it's missing, empty or malformed, or couldn't be saved
+     */
+    public boolean importJson(File importFile) {
+        try {
+            Map<UUID, Clan> raw = ClanJsonReader.readClans(importFile.toPath(), null, logger);
+            if (raw == null) return false;
+            return importClans(raw);
+
+        } catch (IOException | JsonParseException e) {
+            logger.error("Failed to import clans from {}", importFile, e);
+            return false;
+        }
+    }
 
-        Clan existingClan = tempClans.get(existingClanName);
-        boolean isLeaderOfExisting = existingClan != null && uuid.equals(existingClan.leader());
-        boolean isLeaderOfCurrent = uuid.equals(currentLeader);
+    /**
+     * Replaces every clan with the given ones, as read from a file, and saves them.
+     * They go through the same checks as loading does.
+     *
+     * @return true if the clans were saved
+     */
+    public synchronized boolean importClans(Map<UUID, Clan> raw) {
+        for (UUID clanId : state.clans().keySet()) {
+            inviteManager.clearInvitesForClan(clanId);
+        }
+        ClanResolver.Result resolved = ClanResolver.resolve(raw.values(), logger);
+        State before = state;
+        state = State.of(resolved, state.version() + 1);
+        ENABLE_SAVES = true; // the imported clans replace whatever broken data turned saves off
+        boolean saved = store.replaceAll(state.clans());
+        notifyListeners(ClanDiff.between(before.clans(), before.memberships(), state.clans(), state.memberships()));
+        return saved;
+    }
 
-        if (isLeaderOfExisting && isLeaderOfCurrent) return ConflictResult.SKIP_CLAN;
-        if (isLeaderOfExisting) return ConflictResult.SKIP_MEMBER;
-        return ConflictResult.OK; // current clan wins, player will be reassigned
+    /**
+     * Clans are replaced rather than modified, and so is the map holding them, so this stays as it is
+     * while the live clans change.
+     *
+     * @return the clans as of now, keyed by clan id. read-only and safe to read from any thread
+     */
+    public Map<UUID, Clan> snapshot() {
+        return state.clans();
     }
 
-    public void save() {
+    /**
+     * Writes the whole clans map, regardless of storage mode.
+     */
+    public synchronized void save() {
         if (!ENABLE_SAVES) {
             logger.warn("Attempted write to clans.json was prevented due to broken clans.json file.");
             return;
         }
-        Path temp = null;
-        try {
-            Path target = file.toPath();
-            Path parent = target.getParent() != null ? target.getParent() : Paths.get(".");
-            Files.createDirectories(parent);
-
-            temp = Files.createTempFile(parent, "clans", ".tmp");
+        store.flush(state.clans());
+    }
 
-            try (FileOutputStream fos = new FileOutputStream(temp.toFile());
-                 FileChannel channel = fos.getChannel();
-                 Writer writer = new BufferedWriter(
-                         new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+    private void save(List<ClanMutation> mutations) {
+        if (!ENABLE_SAVES) {
+            logger.warn("Attempted write to clans.json was prevented due to broken clans.json file.");
+            return;
+        }
+        store.applyMutations(mutations, state.clans());
+    }
 
-                gson.toJson(clans, writer);
-                writer.flush();
-                channel.force(true);
-            }
-            try { // attempt atomic move
-                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
-            } catch (AtomicMoveNotSupportedException e) {
-                logger.warn("Atomic move not supported on this filesystem, falling back to non-atomic move");
-                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Applies whatever was submitted, flushes any pending write-behind save and writes clans.json one final
+     * time, then closes the store. If saves are off because the stored clans are broken, the store is closed
+     * without writing. Call on server shutdown.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for submitted clan changes to be applied");
             }
-        } catch (IOException e) {
-            logger.error("Failed to save clans", e);
-            if (temp != null) {
-                try {
-                    Files.deleteIfExists(temp);
-                } catch (IOException ignored) {}
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (!ENABLE_SAVES) {
+                logger.warn("Final write to clans.json was prevented due to broken clans.json file.");
+                store.close();
+                return;
             }
+            store.close(state.clans());
         }
     }
 
-    private static String canonicalize(String input) {
+    /**
+     * Lowercased NFKD form of a name with combining marks removed, so "Zoë" and "zoe" are the same clan.
+     *
+     * <p>ASCII is already in NFKD form and has no marks, so pure-ASCII names, which is nearly all of them,
+     * only get lowercased (returning the input itself if it already is). Other names are remembered in a
+     * small cache, which is simply emptied when it fills up.</p>
+     */
+    public static String canonicalize(String input) {
+        if (isAscii(input)) return input.toLowerCase(Locale.ROOT);
+
+        String cached = canonicalCache.get(input);
+        if (cached != null) return cached;
+
         String normalized = Normalizer.normalize(input, Normalizer.Form.NFKD);
-        normalized = normalized.replaceAll("\\p{M}", "");
-        return normalized.toLowerCase(Locale.ROOT);
+        normalized = COMBINING_MARKS.matcher(normalized).replaceAll("");
+        String canonical = normalized.toLowerCase(Locale.ROOT);
+
+        if (canonicalCache.size() >= CANONICAL_CACHE_SIZE) canonicalCache.clear();
+        canonicalCache.put(input, canonical);
+        return canonical;
+    }
+
+    private static boolean isAscii(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if (input.charAt(i) >= 0x80) return false;
+        }
+        return true;
     }
 
     private static boolean containsAllowedChars(String input) {
@@ -0,0 +1,141 @@
+package mnfu.clantag;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A single change to the clans map.
+ *
+ * <p>{@link ClanManager} applies these to its own state and hands them to the storage layer, which
+ * records and later replays them with the same {@link #applyTo} code. That way live state and
+ * replayed state can't disagree about what a change does.</p>
+ */
+public sealed interface ClanMutation {
+
+    /**
+     * @return the id of the clan this change targets
+     */
+    UUID clanId();
+
+    /**
+     * Applies this change to a map keyed by clan id.
+     *
+     * @return the clan as it looks after the change, or null if the change removed it or didn't apply
+     */
+    @Nullable
+    Clan applyTo(Map<UUID, Clan> clans);
+
+    record Create(UUID clanId, String clanName, UUID leader) implements ClanMutation {
+        @Override
+        public Clan applyTo(Map<UUID, Clan> clans) {
+            if (clans.containsKey(clanId)) return null;
+            Clan clan = new Clan(clanId, clanName, leader, UuidSet.of(), UuidSet.of(leader), "#FFFFFF", true);
+            clans.put(clanId, clan);
+            return clan;
+        }
+    }
+
+    record Delete(UUID clanId) implements ClanMutation {
+        @Override
+        public Clan applyTo(Map<UUID, Clan> clans) {
+            clans.remove(clanId);
+            return null;
+        }
+    }
+
+    record AddMember(UUID clanId, UUID player) implements ClanMutation {
+        @Override
+        public Clan applyTo(Map<UUID, Clan> clans) {
+            Clan clan = clans.get(clanId);
+            if (clan == null || clan.members().contains(player)) return null;
+            Clan updatedClan = new Clan(clanId, clan.name(), clan.leader(), clan.officers(), clan.members().with(player), clan.hexColor(), clan.isClosed());
+            clans.put(clanId, updatedClan);
+            return updatedClan;
+        }
+    }
+
+    record RemoveMember(UUID clanId, UUID player) implements ClanMutation {
+        @Override
+        public Clan applyTo(Map<UUID, Clan> clans) {
+            Clan clan = clans.get(clanId);
+            if (clan == null || !clan.members().contains(player)) return null;
+            Clan updatedClan = new Clan(clanId, clan.name(), clan.leader(), clan.officers().without(player), clan.members().without(player), clan.hexColor(), clan.isClosed());
+            clans.put(clanId, updatedClan);
+            return updatedClan;
+        }
+    }
+
+    record AddOfficer(UUID clanId, UUID player) implements ClanMutation {
+        @Override
+        public Clan applyTo(Map<UUID, Clan> clans) {
+            Clan clan = clans.get(clanId);
+            if (clan == null || clan.officers().contains(player)) return null;
+            Clan updatedClan = new Clan(clanId, clan.name(), clan.leader(), clan.officers().with(player), clan.members(), clan.hexColor(), clan.isClosed());
+            clans.put(clanId, updatedClan);
+            return updatedClan;
+        }
+    }
+
+    record RemoveOfficer(UUID clanId, UUID player) implements ClanMutation {
+        @Override
+        public Clan applyTo(Map<UUID, Clan> clans) {
+            Clan clan = clans.get(clanId);
+            if (clan == null || !clan.officers().contains(player)) return null;
+            Clan updatedClan = new Clan(clanId, clan.name(), clan.leader(), clan.officers().without(player), clan.members(), clan.hexColor(), clan.isClosed());
+            clans.put(clanId, updatedClan);
+            return updatedClan;
+        }
+    }
+
+    record TransferLeader(UUID clanId, UUID newLeader) implements ClanMutation {
+        @Override
+        public Clan applyTo(Map<UUID, Clan> clans) {
+            Clan clan = clans.get(clanId);
+            if (clan == null || !clan.members().contains(newLeader)) return null;
+            Clan updatedClan = new Clan(clanId, clan.name(), newLeader, clan.officers().without(newLeader), clan.members(), clan.hexColor(), clan.isClosed());
+            clans.put(clanId, updatedClan);
+            return updatedClan;
+        }
+    }
+
+    record ChangeColor(UUID clanId, String hexColor) implements ClanMutation {
+        @Override
+        public Clan applyTo(Map<UUID, Clan> clans) {
+            Clan clan = clans.get(clanId);
+            if (clan == null) return null;
+
+            Clan updatedClan = new Clan(clanId, clan.name(), clan.leader(), clan.officers(), clan.members(), hexColor, clan.isClosed());
+            clans.put(clanId, updatedClan);
+            return updatedClan;
+        }
+    }
+
+    record ChangePolicy(UUID clanId, boolean isClosed) implements ClanMutation {
+        @Override
+        public Clan applyTo(Map<UUID, Clan> clans) {
+            Clan clan = clans.get(clanId);
+            if (clan == null) return null;
+
+            Clan updatedClan = new Clan(clanId, clan.name(), clan.leader(), clan.officers(), clan.members(), clan.hexColor(), isClosed);
+            clans.put(clanId, updatedClan);
+            return updatedClan;
+        }
+    }
+
+    /**
+     * The clan keeps its id, so nothing else refers to the old name. The caller makes sure the new name is free.
+     */
+    record ChangeName(UUID clanId, String newClanName) implements ClanMutation {
+        @Override
+        public Clan applyTo(Map<UUID, Clan> clans) {
+            Clan clan = clans.get(clanId);
+            if (clan == null) return null;
+
+            Clan updatedClan = new Clan(clanId, newClanName, clan.leader(), clan.officers(), clan.members(), clan.hexColor(), clan.isClosed());
+            clans.put(clanId, updatedClan);
+            return updatedClan;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package mnfu.clantag;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Predicate;
+
+/**
+ * A change to submit to {@link ClanManager#submit}, along with what has to still be true when it's applied.
+ *
+ * <p>The check runs on the manager's writer, against the clan as it is right before the change, so nothing
+ * can change in between. A command that looked at a clan before an async lookup can state what it
+ * looked at as a check, instead of acting on what may be out of date by then.</p>
+ *
+ * @param mutation the change, which also has to pass the manager's own rules, like one clan per player
+ * @param check what the caller needs to be true
+ */
+public record ClanRequest(ClanMutation mutation, Check check) {
+
+    @FunctionalInterface
+    public interface Check {
+        /**
+         * @param clan the clan the change targets, as it is right before the change, or null if it doesn't exist
+         * @return null if the change may go ahead, or why not
+         */
+        @Nullable
+        String failure(@Nullable Clan clan);
+    }
+
+    /**
+     * @param applied whether the change was applied
+     * @param failure the message of the check that failed, or null if it was applied or the manager's own rules refused it
+     * @param clan the clan the change targets, as it is afterwards, or null if it doesn't exist
+     */
+    public record Result(boolean applied, @Nullable String failure, @Nullable Clan clan) {}
+
+    /**
+     * @return a request with no checks beyond the manager's own rules
+     */
+    public static ClanRequest of(ClanMutation mutation) {
+        return new ClanRequest(mutation, clan -> null);
+    }
+
+    /**
+     * @return this request, but also requiring the clan to exist and pass the condition, failing with the given message otherwise
+     */
+    public ClanRequest require(Predicate<Clan> condition, String failure) {
+        Check previous = check;
+        return new ClanRequest(mutation, clan -> {
+            String previousFailure = previous.failure(clan);
+            if (previousFailure != null) return previousFailure;
+            return clan != null && condition.test(clan) ? null : failure;
+        });
+    }
+}
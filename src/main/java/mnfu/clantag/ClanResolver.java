@@ -0,0 +1,120 @@
+package mnfu.clantag;
+
+import org.slf4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BinaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Turns loaded clans into a consistent state where every player is in at most one clan.
+ *
+ * <p>The outcome only depends on the clans themselves, never on the order they were read in, so each
+ * step can run in parallel:</p>
+ * <ol>
+ *     <li>clans stored twice under the same id are merged down to one, picking the smallest name</li>
+ *     <li>clans whose names canonicalize the same are merged down to one, picking the smallest name</li>
+ *     <li>a player leading several clans keeps the one whose canonical name sorts first, the others are dropped</li>
+ *     <li>every other player listed in several clans stays in the one they lead, or else the one whose canonical
+ *     name sorts first, and is removed from the rest</li>
+ * </ol>
+ * <p>Leaders are always members, and officers who aren't listed as members become members.</p>
+ */
+final class ClanResolver {
+
+    /**
+     * @param clans keyed by clan id
+     * @param clanIds clan ids keyed by canonical clan name
+     * @param roles each clan's shared memberships, keyed by clan id
+     * @param memberships keyed by player uuid
+     */
+    record Result(HashTrieMap<UUID, Clan> clans, HashTrieMap<String, UUID> clanIds,
+                  HashTrieMap<UUID, Membership.Roles> roles, UuidIndex<Membership> memberships) {}
+
+    private static final Comparator<Clan> PREFERENCE = Comparator
+            .comparing(Clan::name)
+            .thenComparing(Clan::leader)
+            .thenComparing(Clan::id);
+
+    private ClanResolver() {} // prevent instantiation
+
+    static Result resolve(Collection<Clan> raw, Logger logger) {
+        // 1. one clan per id
+        ConcurrentMap<UUID, Clan> byId = raw.parallelStream()
+                .filter(clan -> clan != null && clan.name() != null && clan.leader() != null)
+                .collect(Collectors.toConcurrentMap(Clan::id, clan -> clan, BinaryOperator.minBy(PREFERENCE)));
+
+        // 2. one clan per canonical name
+        ConcurrentMap<String, Clan> byName = byId.values().parallelStream()
+                .collect(Collectors.toConcurrentMap(clan -> ClanManager.canonicalize(clan.name()), clan -> clan,
+                        BinaryOperator.minBy(PREFERENCE)));
+
+        // 3. one clan per leader
+        ConcurrentMap<UUID, String> ledClan = byName.entrySet().parallelStream()
+                .collect(Collectors.toConcurrentMap(entry -> entry.getValue().leader(), Map.Entry::getKey,
+                        BinaryOperator.<String>minBy(Comparator.naturalOrder())));
+        byName.entrySet().removeIf(entry -> {
+            boolean dropped = !entry.getKey().equals(ledClan.get(entry.getValue().leader()));
+            if (dropped) {
+                logger.warn("Skipping clan {}, its leader already leads {}", entry.getValue().name(), ledClan.get(entry.getValue().leader()));
+            }
+            return dropped;
+        });
+
+        // 4. one clan per player
+        ConcurrentHashMap<UUID, String> owner = new ConcurrentHashMap<>(ledClan);
+        byName.entrySet().parallelStream().forEach(entry -> {
+            claim(entry.getValue().members(), entry.getKey(), ledClan, owner);
+            claim(entry.getValue().officers(), entry.getKey(), ledClan, owner);
+        });
+
+        List<Map.Entry<String, Clan>> cleaned = byName.entrySet().parallelStream()
+                .map(entry -> Map.entry(entry.getKey(), clean(entry.getKey(), entry.getValue(), owner)))
+                .toList();
+
+        HashTrieMap<UUID, Clan> clans = HashTrieMap.of();
+        HashTrieMap<String, UUID> clanIds = HashTrieMap.of();
+        HashTrieMap<UUID, Membership.Roles> roles = HashTrieMap.of();
+        UuidIndex.Builder<Membership> memberships = new UuidIndex.Builder<>(owner.size());
+        for (Map.Entry<String, Clan> entry : cleaned) {
+            Clan clan = entry.getValue();
+            Membership.Roles clanRoles = new Membership.Roles(clan.id());
+            clans = clans.with(clan.id(), clan);
+            clanIds = clanIds.with(entry.getKey(), clan.id());
+            roles = roles.with(clan.id(), clanRoles);
+            for (UUID uuid : clan.members()) {
+                memberships.put(uuid, clanRoles.of(clan, uuid));
+            }
+        }
+        return new Result(clans, clanIds, roles, memberships.build());
+    }
+
+    private static void claim(Set<UUID> players, String canonicalName, Map<UUID, String> ledClan, ConcurrentHashMap<UUID, String> owner) {
+        for (UUID uuid : players) {
+            if (ledClan.containsKey(uuid)) continue; // leaders stay with the clan they lead
+            owner.merge(uuid, canonicalName, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+        }
+    }
+
+    /**
+     * @return the clan with only the players it owns, or the same clan if it already was
+     */
+    private static Clan clean(String canonicalName, Clan clan, Map<UUID, String> owner) {
+        LinkedHashSet<UUID> members = new LinkedHashSet<>();
+        LinkedHashSet<UUID> officers = new LinkedHashSet<>();
+        for (UUID uuid : clan.members()) {
+            if (canonicalName.equals(owner.get(uuid))) members.add(uuid);
+        }
+        members.add(clan.leader()); // leader must always be present
+        for (UUID uuid : clan.officers()) {
+            if (!canonicalName.equals(owner.get(uuid))) continue;
+            members.add(uuid);
+            officers.add(uuid);
+        }
+
+        if (members.equals(clan.members()) && officers.equals(clan.officers())) return clan;
+        return new Clan(clan.id(), clan.name(), clan.leader(), UuidSet.copyOf(officers), UuidSet.copyOf(members), clan.hexColor(), clan.isClosed());
+    }
+}
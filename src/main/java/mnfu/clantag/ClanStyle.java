@@ -0,0 +1,61 @@
+package mnfu.clantag;
+
+import mnfu.clantag.commands.MinecraftColor;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.Style;
+import net.minecraft.network.chat.TextColor;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How a clan is shown in chat: its color parsed once, and its name already styled with it.
+ *
+ * <p>Kept per clan and only built again once the clan is renamed or recolored, so messages and placeholders
+ * don't parse the same hex string and build the same name over and over. The styled name is shared,
+ * so append it to other components but never change it.</p>
+ *
+ * @param name the clan name this was built for
+ * @param hexColor the color this was built for, like {@code #FFAA00}
+ * @param rgb the color as {@code 0xRRGGBB}
+ * @param colorName the color's name, like "Gold", or the hex color if it isn't one of the Minecraft colors
+ */
+public record ClanStyle(String name, String hexColor, int rgb, TextColor textColor, Component coloredName, String colorName) {
+
+    private static final Map<UUID, ClanStyle> BY_CLAN = new ConcurrentHashMap<>();
+
+    /**
+     * @return the style for the clan as it is now
+     */
+    public static ClanStyle of(Clan clan) {
+        ClanStyle cached = BY_CLAN.get(clan.id());
+        if (cached != null && cached.matches(clan)) return cached;
+        ClanStyle built = build(clan.name(), clan.hexColor());
+        BY_CLAN.put(clan.id(), built);
+        return built;
+    }
+
+    /**
+     * Drops the style of a clan that no longer exists.
+     */
+    public static void forget(UUID clanId) {
+        BY_CLAN.remove(clanId);
+    }
+
+    /**
+     * @return whether this still shows the clan as it is, that is, it hasn't been renamed or recolored since
+     */
+    public boolean matches(Clan clan) {
+        return name.equals(clan.name()) && hexColor.equals(clan.hexColor());
+    }
+
+    private static ClanStyle build(String name, String hexColor) {
+        TextColor textColor = TextColor.parseColor(hexColor).getOrThrow();
+        int rgb = textColor.getValue();
+        MinecraftColor color = MinecraftColor.fromColor(rgb);
+        return new ClanStyle(name, hexColor, rgb, textColor,
+                Component.literal(name).setStyle(Style.EMPTY.withColor(textColor)),
+                color != null ? color.getDisplayName() : hexColor);
+    }
+}
@@ -2,21 +2,23 @@ package mnfu.clantag;
 
 import eu.pb4.placeholders.api.PlaceholderResult;
 import mnfu.clantag.commands.*;
+import mnfu.clantag.storage.ClanStore;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.commands.Commands;
 import net.minecraft.server.level.ServerPlayer;
-import net.minecraft.network.chat.Component;
-import net.minecraft.ChatFormatting;
 import net.minecraft.resources.Identifier;
-import net.minecraft.world.entity.player.Player;
+import net.minecraft.server.MinecraftServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import eu.pb4.placeholders.api.Placeholders;
 
 import java.io.File;
+import java.util.UUID;
+import java.util.function.BiFunction;
 
 
 public class ClanTag implements ModInitializer {
@@ -26,14 +28,27 @@ public class ClanTag implements ModInitializer {
     public static final Logger LOGGER = LoggerFactory.getLogger(MOD_ID);
 
     private ClanManager clanManager;
+    private ClanStore store;
+    private ClanTagConfig config;
+    private ClanFileWatcher fileWatcher;
+    private ClanBackups backups;
+    private PlaceholderCache placeholderCache;
+    private OnlineMembers onlineMembers;
 
     @Override
     public void onInitialize() {
         LOGGER.info("Initializing ClanTag");
 
-        File file = new File("config/clans/clans.json");
+        config = ClanTagConfig.load(new File("config/clans/config.json"), LOGGER);
+        LookupExecutor.configure(config.lookupConcurrency);
+        MainThreadExecutor.configure(config.mainThreadBudgetMillis);
+        store = ClanStore.create(new File("config/clans/clans.json"), config, LOGGER);
         InviteManager inviteManager = new InviteManager();
-        clanManager = new ClanManager(file, LOGGER, inviteManager);
+        clanManager = new ClanManager(store, LOGGER, inviteManager);
+        backups = new ClanBackups(clanManager, config, LOGGER);
+        onlineMembers = new OnlineMembers(clanManager);
+        placeholderCache = new PlaceholderCache(clanManager, onlineMembers, config.placeholderFallback);
+        clanManager.addListener(diff -> diff.removed().forEach(ClanStyle::forget));
         LOGGER.info("Successfully loaded {} clan(s)", clanManager.clanCount());
         registerLifecycleEvents();
 
@@ -42,6 +57,8 @@ public class ClanTag implements ModInitializer {
         // cache players when they join, reducing any offline player lookups
         ServerPlayConnectionEvents.JOIN.register(((serverPlayNetworkHandler, packetSender, minecraftServer) -> {
             ServerPlayer player = serverPlayNetworkHandler.getPlayer();
+            onlineMembers.join(player);
+            placeholderCache.joined(player);
             MojangApi.cachePlayer(player);
 
             PersistentPlayerCache cache = PersistentPlayerCache.getInstance();
@@ -53,29 +70,22 @@ public class ClanTag implements ModInitializer {
             }
         }));
 
+        // results are only kept for online players
+        ServerPlayConnectionEvents.DISCONNECT.register((serverPlayNetworkHandler, minecraftServer) -> {
+            UUID uuid = serverPlayNetworkHandler.getPlayer().getUUID();
+            onlineMembers.leave(uuid);
+            placeholderCache.forget(uuid);
+        });
+
         // register placeholders
-        Placeholders.registerServer(
-                Identifier.fromNamespaceAndPath("clantag", "player_clan_name"),
-                (ctx, arg) -> {
-                    if (!ctx.hasPlayer()) return PlaceholderResult.invalid();
-                    Player player = ctx.player();
-                    if (player == null) return PlaceholderResult.invalid();
-                    Clan clan = clanManager.getPlayerClan(player.getUUID());
-                    if (clan == null) return PlaceholderResult.value(Component.literal("Avience"));
-                    return PlaceholderResult.value(Component.literal(clan.name()));
-                }
-        );
-        Placeholders.registerServer(
-                Identifier.fromNamespaceAndPath("clantag", "player_clan_name_colored"),
-                (ctx, arg) -> {
-                    if (!ctx.hasPlayer()) return PlaceholderResult.invalid();
-                    Player player = ctx.player();
-                    if (player == null) return PlaceholderResult.invalid();
-                    Clan clan = clanManager.getPlayerClan(player.getUUID());
-                    if (clan == null) return PlaceholderResult.value(Component.literal("Avience").withStyle(ChatFormatting.GRAY));
-                    return PlaceholderResult.value(Component.literal(clan.name()).withColor(Integer.parseInt(clan.hexColor().substring(1), 16)));
-                }
-        );
+        registerPlayerPlaceholder("player_clan_name", (player, server) -> placeholderCache.name(player.getUUID()));
+        registerPlayerPlaceholder("player_clan_name_colored", (player, server) -> placeholderCache.coloredName(player.getUUID()));
+        registerPlayerPlaceholder("player_clan_members", (player, server) -> placeholderCache.memberCount(player.getUUID()));
+        registerPlayerPlaceholder("player_clan_online", (player, server) -> placeholderCache.onlineCount(player.getUUID()));
+        registerPlayerPlaceholder("player_clan_role", (player, server) -> placeholderCache.role(player.getUUID()));
+        registerPlayerPlaceholder("player_clan_leader", (player, server) -> placeholderCache.leaderName(player.getUUID(), server));
+        registerArgumentPlaceholder("clan_name", placeholderCache::nameOf);
+        registerArgumentPlaceholder("clan_name_colored", placeholderCache::coloredNameOf);
 
         // register commands
         CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
@@ -83,10 +93,10 @@ public class ClanTag implements ModInitializer {
             var baseCommand = Commands.literal("clan");
             HelpCommand helpCommandClass = new HelpCommand();
             var helpCommand = new HelpCommand().build();
-            var adminCommand = new AdminCommand(clanManager).build();
+            var adminCommand = new AdminCommand(clanManager, backups, placeholderCache).build();
             var infoCommand = new InfoCommand(clanManager).build();
 
-            InviteCommand inviteCommand = new InviteCommand(clanManager, inviteManager);
+            InviteCommand inviteCommand = new InviteCommand(clanManager, inviteManager, onlineMembers);
             var inviteSubcommand = inviteCommand.buildInvite();
             var acceptCommand = inviteCommand.buildAccept();
             var declineCommand = inviteCommand.buildDecline();
@@ -94,9 +104,9 @@ public class ClanTag implements ModInitializer {
 
             var createCommand = new CreateCommand(clanManager).build();
             var disbandCommand = new DisbandCommand(clanManager).build();
-            var joinCommand = new JoinCommand(clanManager).build();
-            var kickCommand = new KickCommand(clanManager).build();
-            var leaveCommand = new LeaveCommand(clanManager).build();
+            var joinCommand = new JoinCommand(clanManager, onlineMembers).build();
+            var kickCommand = new KickCommand(clanManager, onlineMembers).build();
+            var leaveCommand = new LeaveCommand(clanManager, onlineMembers).build();
             var setCommand = new SetCommand(clanManager).build();
             var transferCommand = new TransferLeadershipCommand(clanManager).build();
             var promoteCommand = new PromoteCommand(clanManager).build();
@@ -124,13 +134,57 @@ public class ClanTag implements ModInitializer {
         });
     }
 
+    /**
+     * registers a placeholder that needs a player, under the clantag namespace
+     */
+    private static void registerPlayerPlaceholder(String path, BiFunction<ServerPlayer, MinecraftServer, PlaceholderResult> handler) {
+        Placeholders.registerServer(
+                Identifier.fromNamespaceAndPath("clantag", path),
+                (ctx, arg) -> {
+                    if (!ctx.hasPlayer()) return PlaceholderResult.invalid();
+                    ServerPlayer player = ctx.player();
+                    if (player == null) return PlaceholderResult.invalid();
+                    return handler.apply(player, ctx.server());
+                }
+        );
+    }
+
+    /**
+     * registers a placeholder that takes a player name or UUID as argument, under the clantag namespace
+     */
+    private static void registerArgumentPlaceholder(String path, BiFunction<String, MinecraftServer, PlaceholderResult> handler) {
+        Placeholders.registerServer(
+                Identifier.fromNamespaceAndPath("clantag", path),
+                (ctx, arg) -> {
+                    if (arg == null || arg.isBlank()) return PlaceholderResult.invalid("No player given");
+                    return handler.apply(arg.trim(), ctx.server());
+                }
+        );
+    }
+
     private void registerLifecycleEvents() {
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            backups.start();
+            if (config.watchClansFile) {
+                fileWatcher = new ClanFileWatcher(store, clanManager, LOGGER);
+                fileWatcher.start();
+            }
+        });
+        ServerTickEvents.END_SERVER_TICK.register(server -> MainThreadExecutor.get().runTick());
         ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            if (fileWatcher != null) {
+                fileWatcher.close();
+                fileWatcher = null;
+            }
+            backups.close();
+            LookupExecutor.get().close(); // lookups read and write the player cache
+            MainThreadExecutor.get().runAll(); // finish replies to lookups that were still running, they may submit clan changes
+            clanManager.close();
+            MainThreadExecutor.get().runAll(); // replies to the changes the writer applied while closing
             PersistentPlayerCache persistentCache = PersistentPlayerCache.getInstance();
             if (persistentCache != null) {
                 persistentCache.close();
             }
-            clanManager.save();
         });
     }
 }
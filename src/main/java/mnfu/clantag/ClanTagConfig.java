@@ -0,0 +1,125 @@
+package mnfu.clantag;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Server-side settings for ClanTag, read from {@code config/clans/config.json}.
+ *
+ * <p>Missing fields fall back to the defaults below, so older config files keep working
+ * when new options are added. If the file doesn't exist, it is created with the defaults.</p>
+ */
+public class ClanTagConfig {
+
+    /**
+     * IMMEDIATE writes clans.json on the calling thread for every change (the old behaviour).
+     * WRITE_BEHIND marks the data dirty and lets a background thread write merged snapshots.
+     */
+    public enum SaveMode { IMMEDIATE, WRITE_BEHIND }
+
+    /**
+     * PER_WRITE forces every write to disk, BATCHED forces every {@link #fsyncBatchSize} writes,
+     * OS_MANAGED never forces and leaves flushing to the operating system.
+     * The final write on shutdown is always forced.
+     */
+    public enum FsyncPolicy { PER_WRITE, BATCHED, OS_MANAGED }
+
+    /**
+     * SNAPSHOT rewrites all of clans.json for every save.
+     * JOURNAL appends one small record per change to clans.journal and only rewrites clans.json
+     * once the journal grows past {@link #journalCompactBytes}.
+     * SHARDED keeps one file per clan under shards/ and only rewrites the clans that changed.
+     * SQLITE keeps clans, members and officers as rows in clans.db and only updates the rows that changed.
+     * MEMORY never writes anything, all clans are lost on shutdown. Only meant for testing and benchmarking.
+     */
+    public enum StorageMode { SNAPSHOT, JOURNAL, SHARDED, SQLITE, MEMORY }
+
+    /**
+     * Format of the full snapshot written in SNAPSHOT and JOURNAL mode.
+     * JSON writes clans.json. BINARY writes clans.bin, which is smaller and much faster to load,
+     * but can't be edited by hand. Use {@code /clan admin export} and {@code import} to get json in and out.
+     */
+    public enum SnapshotFormat { JSON, BINARY }
+
+    public StorageMode storageMode = StorageMode.SNAPSHOT;
+    public SnapshotFormat snapshotFormat = SnapshotFormat.JSON;
+    public SaveMode saveMode = SaveMode.IMMEDIATE;
+    public long saveIntervalMillis = 5000;
+    public int saveDirtyThreshold = 64;
+    public FsyncPolicy fsyncPolicy = FsyncPolicy.PER_WRITE;
+    public int fsyncBatchSize = 8;
+    public long journalCompactBytes = 1024 * 1024;
+    /** Write clans.json and shards without indentation. Smaller and faster to save, but harder to edit by hand. */
+    public boolean compactJson = false;
+    /**
+     * Reload the clans by themselves when clans.json (or clans.bin) is changed on disk, like {@code /clan admin reload}.
+     * Only works in SNAPSHOT and JOURNAL mode. In JOURNAL mode, changes journaled since the last compaction
+     * are dropped when the file is edited, the edited file wins.
+     */
+    public boolean watchClansFile = false;
+    /** Minutes between automatic backups to config/clans/backups, 0 turns them off. */
+    public int backupIntervalMinutes = 60;
+    /** How many backups to keep, older ones are deleted. */
+    public int backupRetention = 24;
+    /** How many player name and UUID lookups (player cache reads and Mojang API requests) may run at once. */
+    public int lookupConcurrency = 16;
+    /**
+     * Milliseconds per server tick spent finishing async work, like replying to a command once a player lookup is done.
+     * Whatever doesn't fit waits for the next tick.
+     */
+    public long mainThreadBudgetMillis = 2;
+    /** Shown by placeholders that take a player name, like {@code %clantag:clan_name Notch%}, while that player is looked up or if they don't exist. */
+    public String placeholderFallback = "...";
+
+    public static ClanTagConfig load(File file, Logger logger) {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        ClanTagConfig config = null;
+
+        if (file.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                config = gson.fromJson(reader, ClanTagConfig.class);
+            } catch (IOException | JsonParseException e) {
+                logger.error("Failed to read {}, using default settings", file, e);
+                return new ClanTagConfig(); // don't overwrite a file the admin is probably still editing
+            }
+        }
+        if (config == null) config = new ClanTagConfig();
+        config.sanitize(logger);
+
+        // write back so new options show up in the file
+        try {
+            Files.createDirectories(file.toPath().toAbsolutePath().getParent());
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                gson.toJson(config, writer);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to write {}", file, e);
+        }
+        return config;
+    }
+
+    private void sanitize(Logger logger) {
+        if (storageMode == null) storageMode = StorageMode.SNAPSHOT;
+        if (snapshotFormat == null) snapshotFormat = SnapshotFormat.JSON;
+        if (saveMode == null) saveMode = SaveMode.IMMEDIATE;
+        if (fsyncPolicy == null) fsyncPolicy = FsyncPolicy.PER_WRITE;
+        if (saveIntervalMillis < 100) {
+            logger.warn("saveIntervalMillis must be at least 100, was {}", saveIntervalMillis);
+            saveIntervalMillis = 100;
+        }
+        if (saveDirtyThreshold < 1) saveDirtyThreshold = 1;
+        if (fsyncBatchSize < 1) fsyncBatchSize = 1;
+        if (journalCompactBytes < 4096) journalCompactBytes = 4096;
+        if (backupIntervalMinutes < 0) backupIntervalMinutes = 0;
+        if (backupRetention < 1) backupRetention = 1;
+        if (lookupConcurrency < 1) lookupConcurrency = 1;
+        if (mainThreadBudgetMillis < 1) mainThreadBudgetMillis = 1;
+        if (placeholderFallback == null) placeholderFallback = "";
+    }
+}
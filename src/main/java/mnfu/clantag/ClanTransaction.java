@@ -0,0 +1,45 @@
+package mnfu.clantag;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+/**
+ * Several changes that go through {@link ClanManager#batch} or {@link ClanManager#submitBatch} as one.
+ *
+ * <p>Reads see the clans as the transaction left them so far. Either every change is applied, as one new
+ * version of the clans with one write to storage, or none is: as soon as a change breaks the manager's rules
+ * or a {@link #require} fails, everything done so far is dropped. A transaction can't be used once its
+ * batch is over.</p>
+ */
+public interface ClanTransaction {
+
+    @Nullable
+    Clan getClan(String clanName);
+
+    @Nullable
+    Clan getClanById(UUID clanId);
+
+    @Nullable
+    Clan getPlayerClan(UUID playerUUID);
+
+    /**
+     * Applies a change, or rolls the whole transaction back if the manager's rules don't allow it.
+     *
+     * @return the clan the change targets, as it is afterwards, or null if the change removed it
+     */
+    @Nullable
+    Clan apply(ClanMutation mutation);
+
+    /**
+     * Rolls the whole transaction back with the given message if the condition is false.
+     */
+    void require(boolean condition, String failure);
+
+    /**
+     * @param committed whether the changes were applied
+     * @param failure the message of the {@link #require} that failed, or null if the changes were applied
+     *                or the manager's own rules refused one of them
+     */
+    record Result(boolean committed, @Nullable String failure) {}
+}
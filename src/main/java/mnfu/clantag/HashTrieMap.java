@@ -0,0 +1,315 @@
+package mnfu.clantag;
+
+import java.util.*;
+
+/**
+ * An immutable hash map, used for the clans and the indexes over them.
+ *
+ * <p>{@link #with} and {@link #without} return a new map that shares almost all of its structure with the
+ * old one, so changing one clan out of thousands copies a handful of small arrays instead of the whole map.
+ * Both are O(log n), as are {@link #get} and {@link #containsKey}.</p>
+ *
+ * <p>Internally a compressed hash trie (CHAMP), the same layout {@link UuidSet} finds its uuids with.
+ * Iteration order is unspecified. Null keys and values aren't allowed, and {@link #put} and {@link #remove}
+ * throw, like every other read-only map.</p>
+ */
+public final class HashTrieMap<K, V> extends AbstractMap<K, V> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final int MAX_DEPTH = (Integer.SIZE + BITS - 1) / BITS;
+    private static final Object[] NO_ENTRIES = new Object[0];
+    private static final Object[] NO_NODES = new Object[0];
+    private static final Node EMPTY_NODE = new Node(0, 0, NO_ENTRIES, NO_NODES);
+    private static final HashTrieMap<?, ?> EMPTY = new HashTrieMap<>(EMPTY_NODE, 0);
+
+    private final Node root;
+    private final int size;
+
+    private HashTrieMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> HashTrieMap<K, V> of() {
+        return (HashTrieMap<K, V>) EMPTY;
+    }
+
+    /**
+     * @return a map with the same entries, or the map itself if it already is one
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> HashTrieMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        if (map instanceof HashTrieMap<?, ?> trie) return (HashTrieMap<K, V>) trie;
+        HashTrieMap<K, V> copy = of();
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            copy = copy.with(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && find(key, hash(key)) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null) return null;
+        Object[] entries = find(key, hash(key));
+        if (entries == null) return null;
+        for (int i = 0; ; i += 2) {
+            if (entries[i].equals(key)) return (V) entries[i + 1];
+        }
+    }
+
+    /**
+     * @return this map with the key mapped to the value, or this map if it already was
+     */
+    public HashTrieMap<K, V> with(K key, V value) {
+        Objects.requireNonNull(value);
+        int hash = hash(key);
+        Object[] entries = find(key, hash);
+        if (entries == null) return new HashTrieMap<>(put(root, key, value, hash, 0), size + 1);
+        for (int i = 0; ; i += 2) {
+            if (!entries[i].equals(key)) continue;
+            if (entries[i + 1] == value) return this;
+            return new HashTrieMap<>(put(root, key, value, hash, 0), size);
+        }
+    }
+
+    /**
+     * @return this map without the key, or this map if it isn't in it
+     */
+    public HashTrieMap<K, V> without(Object key) {
+        if (key == null) return this;
+        int hash = hash(key);
+        if (find(key, hash) == null) return this;
+        if (size == 1) return of();
+        return new HashTrieMap<>(remove(root, key, hash, 0), size - 1);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    /**
+     * walks the trie depth first, handing out the entries stored inline in a node before going into its children.
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private final Node[] nodes = new Node[MAX_DEPTH];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth = 0;
+        private int remaining = size;
+        private Object[] entries = root.entries;
+        private int next = 0;
+
+        EntryIterator() {
+            nodes[0] = root;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            if (remaining <= 0) throw new NoSuchElementException();
+            while (next == entries.length) nextEntries();
+            Entry<K, V> entry = new SimpleImmutableEntry<>((K) entries[next], (V) entries[next + 1]);
+            next += 2;
+            remaining--;
+            return entry;
+        }
+
+        private void nextEntries() {
+            while (positions[depth] == nodes[depth].nodes.length) depth--; // done with this node, back up
+            Object child = nodes[depth].nodes[positions[depth]++];
+            if (child instanceof Node node) {
+                depth++;
+                nodes[depth] = node;
+                positions[depth] = 0;
+                entries = node.entries;
+            } else {
+                entries = ((Collision) child).entries;
+            }
+            next = 0;
+        }
+    }
+
+    /**
+     * A CHAMP node. Entries stored inline are marked in dataMap, child nodes in nodeMap, both in bit order.
+     * The key and value of the i-th entry are at 2i and 2i+1 of entries. A child always holds two or more entries.
+     */
+    private record Node(int dataMap, int nodeMap, Object[] entries, Object[] nodes) {}
+
+    /** entries whose keys have equal full hashes, below the last level a hash can tell apart. laid out like a node's */
+    private record Collision(Object[] entries) {}
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16); // fold the high bits in, like HashMap does, the first levels only see the low ones
+    }
+
+    /**
+     * @return the entries array holding the key, or null if it isn't in the map
+     */
+    private Object[] find(Object key, int hash) {
+        Object node = root;
+        for (int shift = 0; ; shift += BITS) {
+            if (node instanceof Node n) {
+                int bit = 1 << ((hash >>> shift) & MASK);
+                if ((n.dataMap & bit) != 0) {
+                    int i = Integer.bitCount(n.dataMap & (bit - 1));
+                    return n.entries[2 * i].equals(key) ? n.entries : null;
+                }
+                if ((n.nodeMap & bit) == 0) return null;
+                node = n.nodes[Integer.bitCount(n.nodeMap & (bit - 1))];
+            } else {
+                Object[] entries = ((Collision) node).entries;
+                for (int i = 0; i < entries.length; i += 2) {
+                    if (entries[i].equals(key)) return entries;
+                }
+                return null;
+            }
+        }
+    }
+
+    private static Node put(Node n, Object key, Object value, int hash, int shift) {
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((n.dataMap & bit) != 0) {
+            int i = Integer.bitCount(n.dataMap & (bit - 1));
+            Object existing = n.entries[2 * i];
+            if (existing.equals(key)) {
+                Object[] entries = n.entries.clone();
+                entries[2 * i + 1] = value;
+                return new Node(n.dataMap, n.nodeMap, entries, n.nodes);
+            }
+            // push the entry down into a new child along with the added one
+            Object child = merge(existing, n.entries[2 * i + 1], hash(existing), key, value, hash, shift + BITS);
+            return new Node(n.dataMap & ~bit, n.nodeMap | bit, removePair(n.entries, i),
+                    insert(n.nodes, Integer.bitCount(n.nodeMap & (bit - 1)), child));
+        }
+        if ((n.nodeMap & bit) != 0) {
+            int j = Integer.bitCount(n.nodeMap & (bit - 1));
+            Object[] nodes = n.nodes.clone();
+            nodes[j] = nodes[j] instanceof Node child
+                    ? put(child, key, value, hash, shift + BITS)
+                    : new Collision(putPair(((Collision) nodes[j]).entries, key, value));
+            return new Node(n.dataMap, n.nodeMap, n.entries, nodes);
+        }
+        return new Node(n.dataMap | bit, n.nodeMap, insertPair(n.entries, Integer.bitCount(n.dataMap & (bit - 1)), key, value), n.nodes);
+    }
+
+    private static Object merge(Object keyA, Object valueA, int hashA, Object keyB, Object valueB, int hashB, int shift) {
+        if (shift >= Integer.SIZE) return new Collision(new Object[]{keyA, valueA, keyB, valueB});
+        int bitA = (hashA >>> shift) & MASK;
+        int bitB = (hashB >>> shift) & MASK;
+        if (bitA == bitB) {
+            return new Node(0, 1 << bitA, NO_ENTRIES, new Object[]{merge(keyA, valueA, hashA, keyB, valueB, hashB, shift + BITS)});
+        }
+        return new Node((1 << bitA) | (1 << bitB), 0,
+                bitA < bitB ? new Object[]{keyA, valueA, keyB, valueB} : new Object[]{keyB, valueB, keyA, valueA}, NO_NODES);
+    }
+
+    /**
+     * caller made sure the key is in the trie. a returned child holding a single entry is pulled up into
+     * its parent, so every child keeps holding two or more.
+     */
+    private static Node remove(Node n, Object key, int hash, int shift) {
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((n.dataMap & bit) != 0) {
+            return new Node(n.dataMap & ~bit, n.nodeMap, removePair(n.entries, Integer.bitCount(n.dataMap & (bit - 1))), n.nodes);
+        }
+
+        int j = Integer.bitCount(n.nodeMap & (bit - 1));
+        Object[] remaining;
+        if (n.nodes[j] instanceof Node child) {
+            Node smaller = remove(child, key, hash, shift + BITS);
+            if (smaller.nodeMap != 0 || smaller.entries.length > 2) {
+                Object[] nodes = n.nodes.clone();
+                nodes[j] = smaller;
+                return new Node(n.dataMap, n.nodeMap, n.entries, nodes);
+            }
+            remaining = smaller.entries;
+        } else {
+            Object[] entries = ((Collision) n.nodes[j]).entries;
+            int k = 0;
+            while (!entries[2 * k].equals(key)) k++;
+            remaining = removePair(entries, k);
+            if (remaining.length > 2) {
+                Object[] nodes = n.nodes.clone();
+                nodes[j] = new Collision(remaining);
+                return new Node(n.dataMap, n.nodeMap, n.entries, nodes);
+            }
+        }
+        // one entry left in the child, store it here instead
+        return new Node(n.dataMap | bit, n.nodeMap & ~bit,
+                insertPair(n.entries, Integer.bitCount(n.dataMap & (bit - 1)), remaining[0], remaining[1]),
+                removeEntry(n.nodes, j));
+    }
+
+    // copy-on-write array helpers
+
+    /** the entries of a collision with the key mapped to the value, replacing the key's entry if it has one */
+    private static Object[] putPair(Object[] entries, Object key, Object value) {
+        for (int i = 0; i < entries.length; i += 2) {
+            if (!entries[i].equals(key)) continue;
+            Object[] copy = entries.clone();
+            copy[i + 1] = value;
+            return copy;
+        }
+        return insertPair(entries, entries.length / 2, key, value);
+    }
+
+    private static Object[] insertPair(Object[] entries, int at, Object key, Object value) {
+        Object[] copy = new Object[entries.length + 2];
+        System.arraycopy(entries, 0, copy, 0, 2 * at);
+        copy[2 * at] = key;
+        copy[2 * at + 1] = value;
+        System.arraycopy(entries, 2 * at, copy, 2 * at + 2, entries.length - 2 * at);
+        return copy;
+    }
+
+    private static Object[] removePair(Object[] entries, int at) {
+        Object[] copy = new Object[entries.length - 2];
+        System.arraycopy(entries, 0, copy, 0, 2 * at);
+        System.arraycopy(entries, 2 * at + 2, copy, 2 * at, copy.length - 2 * at);
+        return copy;
+    }
+
+    private static Object[] insert(Object[] array, int at, Object value) {
+        Object[] copy = new Object[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+
+    private static Object[] removeEntry(Object[] array, int at) {
+        Object[] copy = new Object[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        System.arraycopy(array, at + 1, copy, at, copy.length - at);
+        return copy;
+    }
+}
@@ -0,0 +1,108 @@
+package mnfu.clantag;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs player name and UUID lookups, the player cache reads and Mojang API requests behind
+ * {@link mnfu.clantag.commands.CommandUtils} and {@link MojangApi}.
+ *
+ * <p>Every task gets its own virtual thread, so a lookup can simply block on the database or the network,
+ * and listing a big clan with one lookup per member costs next to nothing. At most {@code maxConcurrent}
+ * of them run at once, the rest wait for a turn. None of it touches the common pool, which other mods
+ * and the JDK share.</p>
+ */
+public final class LookupExecutor implements Executor {
+
+    private static final int DEFAULT_MAX_CONCURRENT = 16;
+
+    private static volatile LookupExecutor instance = new LookupExecutor(DEFAULT_MAX_CONCURRENT);
+
+    private final ExecutorService threads = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("ClanTag Lookup-", 0).factory()
+    );
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger peakRunning = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private LookupExecutor(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * @return the executor all lookups run on
+     */
+    public static LookupExecutor get() {
+        return instance;
+    }
+
+    /**
+     * Replaces the executor with one allowing the given number of lookups at once.
+     * Meant to be called once on startup, before any lookups run.
+     */
+    public static void configure(int maxConcurrent) {
+        instance = new LookupExecutor(maxConcurrent);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        submitted.increment();
+        waiting.incrementAndGet();
+        threads.execute(() -> {
+            permits.acquireUninterruptibly();
+            waiting.decrementAndGet();
+            peakRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                task.run();
+                completed.increment();
+            } catch (Throwable t) {
+                failed.increment();
+                throw t;
+            } finally {
+                running.decrementAndGet();
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * @param running lookups running right now
+     * @param waiting lookups waiting for one of the running ones to finish
+     * @param peakRunning the most lookups that ever ran at once
+     * @param maxConcurrent how many lookups may run at once
+     * @param submitted lookups started since startup
+     * @param completed lookups finished since startup
+     * @param failed lookups that threw since startup
+     */
+    public record Stats(int running, int waiting, int peakRunning, int maxConcurrent,
+                        long submitted, long completed, long failed) {}
+
+    public Stats stats() {
+        return new Stats(running.get(), waiting.get(), peakRunning.get(), maxConcurrent,
+                submitted.sum(), completed.sum(), failed.sum());
+    }
+
+    /**
+     * Stops taking new lookups and gives the running ones a few seconds to finish.
+     */
+    public void close() {
+        threads.shutdown();
+        try {
+            if (!threads.awaitTermination(5, TimeUnit.SECONDS)) threads.shutdownNow();
+        } catch (InterruptedException e) {
+            threads.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package mnfu.clantag;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Brings async work back to the server thread, like replying once a player lookup is done.
+ *
+ * <p>Tasks can be handed over from any thread. They're run in order at the end of each server tick,
+ * for at most {@code budgetMillis} per tick, and whatever doesn't fit waits for the next tick. At least
+ * one task runs every tick, so a single slow task can't hold up the rest forever.</p>
+ *
+ * <p>Anything that reads clans to act on them, or talks to players, after an async step goes through here,
+ * so it never runs on a lookup or storage thread.</p>
+ */
+public final class MainThreadExecutor implements Executor {
+
+    private static final long DEFAULT_BUDGET_MILLIS = 2;
+
+    private static volatile MainThreadExecutor instance = new MainThreadExecutor(DEFAULT_BUDGET_MILLIS);
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final long budgetNanos;
+
+    private MainThreadExecutor(long budgetMillis) {
+        this.budgetNanos = budgetMillis * 1_000_000L;
+    }
+
+    /**
+     * @return the executor for the server thread
+     */
+    public static MainThreadExecutor get() {
+        return instance;
+    }
+
+    /**
+     * Replaces the executor with one using the given budget per tick.
+     * Meant to be called once on startup, before the server ticks.
+     */
+    public static void configure(long budgetMillis) {
+        instance = new MainThreadExecutor(budgetMillis);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+    }
+
+    /**
+     * Runs waiting tasks until they're all done or the tick's budget is used up. Only call this on the server thread.
+     */
+    public void runTick() {
+        long deadline = System.nanoTime() + budgetNanos;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            run(task);
+            if (System.nanoTime() - deadline >= 0) break;
+        }
+    }
+
+    /**
+     * Runs every waiting task, ignoring the budget. Used on shutdown, when no more ticks will come.
+     */
+    public void runAll() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            run(task);
+        }
+    }
+
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable t) { // one broken reply shouldn't take the tick down with it
+            ClanTag.LOGGER.error("Task on the server thread failed", t);
+        }
+    }
+}
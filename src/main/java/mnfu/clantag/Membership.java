@@ -0,0 +1,68 @@
+package mnfu.clantag;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+/**
+ * Which clan a player is in and their rank in it.
+ *
+ * <p>Every clan has one shared instance per role, and the player index maps each player to one of them,
+ * so finding a player's clan and rank is a single lookup that allocates nothing. They refer to the clan
+ * by id, which never changes, so a change to a clan doesn't touch the index entries of its members.</p>
+ */
+public final class Membership {
+    public enum Role {
+        LEADER, OFFICER, MEMBER;
+
+        /**
+         * @return the player's rank in the clan, or null if they're not in it
+         */
+        @Nullable
+        public static Role of(Clan clan, UUID player) {
+            if (player.equals(clan.leader())) return LEADER;
+            if (clan.officers().contains(player)) return OFFICER;
+            return clan.members().contains(player) ? MEMBER : null;
+        }
+    }
+
+    private final UUID clanId;
+    private final Role role;
+
+    private Membership(UUID clanId, Role role) {
+        this.clanId = clanId;
+        this.role = role;
+    }
+
+    public UUID clanId() {
+        return clanId;
+    }
+
+    public Role role() {
+        return role;
+    }
+
+    /**
+     * The shared memberships of one clan, one per role.
+     */
+    static final class Roles {
+        private final Membership[] byRole = new Membership[Role.values().length];
+
+        Roles(UUID clanId) {
+            for (Role role : Role.values()) {
+                byRole[role.ordinal()] = new Membership(clanId, role);
+            }
+        }
+
+        Membership get(Role role) {
+            return byRole[role.ordinal()];
+        }
+
+        /**
+         * @param player a member of the clan
+         */
+        Membership of(Clan clan, UUID player) {
+            return get(player.equals(clan.leader()) ? Role.LEADER : clan.officers().contains(player) ? Role.OFFICER : Role.MEMBER);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import net.minecraft.server.level.ServerPlayer;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
@@ -11,6 +13,7 @@ import java.net.http.HttpResponse;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public final class MojangApi {
 
@@ -46,16 +49,30 @@ public final class MojangApi {
                     ))
                     .GET()
                     .build();
-            return CLIENT.sendAsync(
-                    request,
-                    HttpResponse.BodyHandlers.ofString())
-                    .thenApply(response -> handleUsernameResponse(response, uuid))
+            return send(request).thenApply(response -> handleUsernameResponse(response, uuid))
                     .exceptionally(ex -> Optional.empty());
         } catch (Exception e) {
             return CompletableFuture.completedFuture(Optional.empty());
         }
     }
 
+    /**
+     * Sends the request on a {@link LookupExecutor} thread, so handling the response runs there too
+     * and the lookup counts towards its limit.
+     */
+    private static CompletableFuture<HttpResponse<String>> send(HttpRequest request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }, LookupExecutor.get());
+    }
+
     private static Optional<String> handleUsernameResponse(HttpResponse<String> response, UUID uuid) {
         int statusCode = response.statusCode();
         if (statusCode == 200) {
@@ -108,10 +125,8 @@ public final class MojangApi {
                     ))
                     .GET()
                     .build();
-            return CLIENT.sendAsync(
-                    request, HttpResponse.BodyHandlers.ofString())
-                        .thenApply(response -> handleUuidResponse(response, username))
-                        .exceptionally(ex -> Optional.empty());
+            return send(request).thenApply(response -> handleUuidResponse(response, username))
+                    .exceptionally(ex -> Optional.empty());
         } catch (Exception e) {
             return CompletableFuture.completedFuture(Optional.empty());
         }
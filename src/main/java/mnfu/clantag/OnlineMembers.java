@@ -0,0 +1,82 @@
+package mnfu.clantag;
+
+import net.minecraft.server.level.ServerPlayer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The online players of each clan, so a message to a clan only goes through the members who are online,
+ * instead of looking up every member in the player list.
+ *
+ * <p>Kept up to date from players joining and leaving the server, and from changes to the clans, so a player
+ * shows up under their new clan as soon as the change is made. Reads don't lock and work on any thread.</p>
+ */
+public final class OnlineMembers {
+
+    private final ClanManager clanManager;
+    private final Map<UUID, ServerPlayer> online = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<UUID, ServerPlayer>> byClan = new ConcurrentHashMap<>();
+    /** the clan each online player is filed under. guarded by this */
+    private final Map<UUID, UUID> filedUnder = new HashMap<>();
+
+    public OnlineMembers(ClanManager clanManager) {
+        this.clanManager = clanManager;
+        clanManager.addListener(this::update);
+    }
+
+    public synchronized void join(ServerPlayer player) {
+        online.put(player.getUUID(), player);
+        file(player.getUUID());
+    }
+
+    public synchronized void leave(UUID player) {
+        online.remove(player);
+        file(player);
+    }
+
+    /**
+     * @return the clan's members who are online right now
+     */
+    public Collection<ServerPlayer> of(UUID clanId) {
+        Map<UUID, ServerPlayer> members = byClan.get(clanId);
+        return members != null ? Collections.unmodifiableCollection(members.values()) : List.of();
+    }
+
+    public int count(UUID clanId) {
+        Map<UUID, ServerPlayer> members = byClan.get(clanId);
+        return members != null ? members.size() : 0;
+    }
+
+    private synchronized void update(ClanDiff diff) {
+        for (UUID player : diff.movedPlayers()) {
+            if (online.containsKey(player)) file(player);
+        }
+    }
+
+    /**
+     * files an online player under the clan they're in now, or takes them out if they're offline or in no clan.
+     * callers hold the lock.
+     */
+    private void file(UUID player) {
+        UUID before = filedUnder.remove(player);
+        if (before != null) {
+            Map<UUID, ServerPlayer> members = byClan.get(before);
+            if (members != null) {
+                members.remove(player);
+                if (members.isEmpty()) byClan.remove(before);
+            }
+        }
+
+        ServerPlayer serverPlayer = online.get(player);
+        Membership membership = serverPlayer != null ? clanManager.getMembership(player) : null;
+        if (membership == null) return;
+        filedUnder.put(player, membership.clanId());
+        byClan.computeIfAbsent(membership.clanId(), id -> new ConcurrentHashMap<>()).put(player, serverPlayer);
+    }
+}
@@ -15,8 +15,13 @@ public class PersistentPlayerCache {
 
     private static PersistentPlayerCache INSTANCE;
 
-    private final Map<UUID, String> uuidToName = new ConcurrentHashMap<>();
-    private final Map<String, UUID> nameToUuid = new ConcurrentHashMap<>();
+    /**
+     * Both directions of the cache, replaced together when the cache is restored, so readers never see them
+     * half filled or out of step with each other.
+     */
+    private record Names(Map<UUID, String> uuidToName, Map<String, UUID> nameToUuid) {}
+
+    private volatile Names names = new Names(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
     private final Logger logger;
     private Connection connection;
 
@@ -56,6 +61,8 @@ public class PersistentPlayerCache {
     }
 
     private void loadIntoMemory() throws SQLException {
+        Map<UUID, String> uuidToName = new ConcurrentHashMap<>();
+        Map<String, UUID> nameToUuid = new ConcurrentHashMap<>();
         try (Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery("SELECT uuid, username FROM player_names")) {
             int count = 0;
@@ -68,14 +75,15 @@ public class PersistentPlayerCache {
             }
             logger.info("Loaded {} entries from persistent player cache", count);
         }
+        names = new Names(uuidToName, nameToUuid);
     }
 
     public Optional<String> getUsername(UUID uuid) {
-        return Optional.ofNullable(uuidToName.get(uuid));
+        return Optional.ofNullable(names.uuidToName().get(uuid));
     }
 
     public Optional<UUID> getUuid(String username) {
-        return Optional.ofNullable(nameToUuid.get(username.toLowerCase()));
+        return Optional.ofNullable(names.nameToUuid().get(username.toLowerCase()));
     }
 
     /**
@@ -83,6 +91,9 @@ public class PersistentPlayerCache {
      * Returns true if an update was made.
      */
     public boolean updateIfChanged(UUID uuid, String username) {
+        Names current = names;
+        Map<UUID, String> uuidToName = current.uuidToName();
+        Map<String, UUID> nameToUuid = current.nameToUuid();
         String existing = uuidToName.get(uuid);
         if (username.equals(existing)) return false;
 
@@ -106,6 +117,15 @@ public class PersistentPlayerCache {
         return true;
     }
 
+    /**
+     * Replaces every cached name with the ones in another player cache database, such as a backup.
+     * Lookups keep seeing the old names until the restored ones are all loaded.
+     */
+    public void restoreFrom(Path file) throws SQLException {
+        ClanBackups.copyDatabase(connection, file, true);
+        loadIntoMemory();
+    }
+
     public void close() {
         try {
             if (connection != null && !connection.isClosed()) {
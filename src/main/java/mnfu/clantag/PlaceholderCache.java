@@ -0,0 +1,336 @@
+package mnfu.clantag;
+
+import eu.pb4.placeholders.api.PlaceholderResult;
+import mnfu.clantag.commands.CommandUtils;
+import net.minecraft.ChatFormatting;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The results of the {@code clantag:player_clan_*} placeholders, built once and handed out until something
+ * they show changes.
+ *
+ * <p>Chat and tab list mods ask for these for every message and refresh, so a clan name is a single map lookup
+ * that allocates nothing. Results are only dropped when a player joins or leaves a clan, or their clan
+ * is renamed, recolored or deleted. Other changes to a clan, like promotions, keep them. Players share their
+ * clan's results, so renaming or recoloring a clan replaces one entry no matter how many members it has.</p>
+ *
+ * <p>Counts, roles and leader names never look at more than one player either: member counts come with the clan,
+ * online counts from {@link OnlineMembers}, roles from the player index, and leader names are looked up once
+ * in the background and kept until the leadership moves or the leader logs in again.</p>
+ *
+ * <p>The placeholders that take a player name as argument never wait on a lookup either. Names are resolved
+ * in the background, once per name, and show the configured fallback until then.</p>
+ */
+public final class PlaceholderCache {
+
+    private static final String NO_CLAN_NAME = "Avience";
+
+    /**
+     * @param clanId the clan these were built for, or null for players without a clan
+     * @param style what the results were built from, or null for players without a clan
+     */
+    private record Results(@Nullable UUID clanId, @Nullable ClanStyle style, PlaceholderResult plain, PlaceholderResult colored) {
+        boolean shows(Clan clan) {
+            return style != null && style.matches(clan);
+        }
+    }
+
+    private static final Results NO_CLAN = new Results(null, null,
+            PlaceholderResult.value(Component.literal(NO_CLAN_NAME)),
+            PlaceholderResult.value(Component.literal(NO_CLAN_NAME).withStyle(ChatFormatting.GRAY)));
+
+    private static final PlaceholderResult EMPTY = PlaceholderResult.value("");
+    private static final PlaceholderResult UNKNOWN_LEADER = PlaceholderResult.value("Unknown Player");
+    private static final PlaceholderResult[] ROLES = {
+            PlaceholderResult.value("Leader"), PlaceholderResult.value("Officer"), PlaceholderResult.value("Member")
+    };
+
+    /** how long a name that couldn't be resolved is remembered before it's looked up again */
+    private static final long UNRESOLVED_RETRY_MILLIS = 10 * 60 * 1000L;
+    /** how many names are remembered, the least recently shown ones are dropped first */
+    private static final int RESOLVED_NAMES_LIMIT = 1024;
+
+    /**
+     * @param uuid the player, or null while they're being looked up or if they weren't found
+     * @param expiresAt when to look them up again
+     */
+    private record Resolution(@Nullable UUID uuid, long expiresAt) {
+        static final Resolution PENDING = new Resolution(null, Long.MAX_VALUE);
+
+        boolean pending() {
+            return this == PENDING;
+        }
+    }
+
+    /**
+     * @param leader who the name was looked up for, so it's known to be out of date once the leadership moves
+     */
+    private record LeaderName(UUID leader, PlaceholderResult name) {}
+
+    private final ClanManager clanManager;
+    private final OnlineMembers onlineMembers;
+    private final PlaceholderResult fallback;
+    /**
+     * player names in lower case, least recently used first. names still being looked up are never dropped,
+     * so their lookups always have somewhere to land and one name never has two lookups at once. guarded by itself
+     */
+    private final Map<String, Resolution> resolvedNames = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+            trimResolvedNames();
+            return false;
+        }
+    };
+    private final Map<UUID, LeaderName> leaderNames = new ConcurrentHashMap<>();
+    /** the results each player was last given, only still good while they're the ones in byClan */
+    private final Map<UUID, Results> byPlayer = new ConcurrentHashMap<>();
+    private final Map<UUID, Results> byClan = new ConcurrentHashMap<>();
+    /** Bumped before anything is dropped, so a result built from clans that were about to change isn't kept. */
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param fallback shown by the placeholders that take a player while that player is looked up, or if they don't exist
+     */
+    public PlaceholderCache(ClanManager clanManager, OnlineMembers onlineMembers, String fallback) {
+        this.clanManager = clanManager;
+        this.onlineMembers = onlineMembers;
+        this.fallback = PlaceholderResult.value(fallback);
+        clanManager.addListener(this::invalidate);
+    }
+
+    public PlaceholderResult name(UUID player) {
+        return results(player).plain();
+    }
+
+    public PlaceholderResult coloredName(UUID player) {
+        return results(player).colored();
+    }
+
+    /**
+     * Like {@link #name(UUID)}, for any player given by name or UUID. Call on the server thread.
+     */
+    public PlaceholderResult nameOf(String player, MinecraftServer server) {
+        UUID uuid = resolve(player, server);
+        return uuid != null ? resultsOf(uuid).plain() : fallback;
+    }
+
+    /**
+     * Like {@link #coloredName(UUID)}, for any player given by name or UUID. Call on the server thread.
+     */
+    public PlaceholderResult coloredNameOf(String player, MinecraftServer server) {
+        UUID uuid = resolve(player, server);
+        return uuid != null ? resultsOf(uuid).colored() : fallback;
+    }
+
+    public PlaceholderResult memberCount(UUID player) {
+        Clan clan = clanManager.getPlayerClan(player);
+        return PlaceholderResult.value(Integer.toString(clan != null ? clan.members().size() : 0));
+    }
+
+    public PlaceholderResult onlineCount(UUID player) {
+        Membership membership = clanManager.getMembership(player);
+        return PlaceholderResult.value(Integer.toString(membership != null ? onlineMembers.count(membership.clanId()) : 0));
+    }
+
+    public PlaceholderResult role(UUID player) {
+        Membership membership = clanManager.getMembership(player);
+        return membership != null ? ROLES[membership.role().ordinal()] : EMPTY;
+    }
+
+    /**
+     * Shows "Unknown Player" until the leader's name has been looked up, which only starts the first time
+     * it's asked for. Call on the server thread.
+     */
+    public PlaceholderResult leaderName(UUID player, MinecraftServer server) {
+        Clan clan = clanManager.getPlayerClan(player);
+        if (clan == null) return EMPTY;
+        LeaderName cached = leaderNames.get(clan.id());
+        if (cached != null && cached.leader().equals(clan.leader())) return cached.name();
+
+        // only the caller that gets to put the placeholder in starts a lookup
+        UUID clanId = clan.id();
+        LeaderName pending = new LeaderName(clan.leader(), UNKNOWN_LEADER);
+        boolean claimed = cached == null ? leaderNames.putIfAbsent(clanId, pending) == null : leaderNames.replace(clanId, cached, pending);
+        if (claimed) {
+            CommandUtils.getPlayerName(server, clan.leader()).whenComplete((name, error) -> {
+                String found = name != null ? name.orElse(null) : null;
+                if (found != null) leaderNames.replace(clanId, pending, new LeaderName(pending.leader(), PlaceholderResult.value(found)));
+            });
+        }
+        LeaderName now = leaderNames.get(clanId); // the leader may be online, then the name is already in
+        return now != null && now.leader().equals(clan.leader()) ? now.name() : UNKNOWN_LEADER;
+    }
+
+    /**
+     * Refreshes a player's name wherever it's shown as a leader, since they may have changed it.
+     */
+    public void joined(ServerPlayer player) {
+        Membership membership = clanManager.getMembership(player.getUUID());
+        if (membership == null || membership.role() != Membership.Role.LEADER) return;
+        leaderNames.put(membership.clanId(), new LeaderName(player.getUUID(), PlaceholderResult.value(player.getName().getString())));
+    }
+
+    /**
+     * Drops a player's results, such as when they log off.
+     */
+    public void forget(UUID player) {
+        byPlayer.remove(player);
+    }
+
+    /**
+     * @param hits lookups answered from the cache
+     * @param misses lookups that had to build results
+     * @param players players with results right now
+     * @param clans clans with results right now
+     */
+    public record Stats(long hits, long misses, int players, int clans, int names) {}
+
+    public Stats stats() {
+        int names;
+        synchronized (resolvedNames) {
+            names = resolvedNames.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), byPlayer.size(), byClan.size(), names);
+    }
+
+    private Results results(UUID player) {
+        Results cached = cached(player);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        long seen = generation.get();
+        Clan clan = clanManager.getPlayerClan(player);
+        Results results = clan == null ? NO_CLAN : clanResults(clan, seen);
+        byPlayer.put(player, results);
+        if (generation.get() != seen) {
+            // the clans changed while these were built, they may already be out of date
+            byPlayer.remove(player, results);
+        }
+        return results;
+    }
+
+    /**
+     * results for a player that isn't necessarily online. not kept per player, so arguments can't fill the cache up
+     */
+    private Results resultsOf(UUID player) {
+        Results cached = cached(player);
+        if (cached != null) return cached;
+        long seen = generation.get();
+        Clan clan = clanManager.getPlayerClan(player);
+        return clan == null ? NO_CLAN : clanResults(clan, seen);
+    }
+
+    /**
+     * @return the player's results, or null if they have none or their clan's were dropped since
+     */
+    @Nullable
+    private Results cached(UUID player) {
+        Results cached = byPlayer.get(player);
+        if (cached == null || cached.clanId() == null) return cached;
+        return byClan.get(cached.clanId()) == cached ? cached : null;
+    }
+
+    /**
+     * @return the player's UUID, or null if it isn't known yet, in which case it's looked up unless that's already happening
+     */
+    @Nullable
+    private UUID resolve(String player, MinecraftServer server) {
+        if (player.length() == 36) {
+            try {
+                return UUID.fromString(player);
+            } catch (IllegalArgumentException ignored) {
+                // a name after all
+            }
+        }
+
+        String key = player.toLowerCase(Locale.ROOT);
+        synchronized (resolvedNames) {
+            Resolution cached = resolvedNames.get(key);
+            if (cached != null && cached.expiresAt() > System.currentTimeMillis()) return cached.uuid();
+            // every other render sees the placeholder and waits for this lookup instead of starting its own
+            resolvedNames.put(key, Resolution.PENDING);
+        }
+        CommandUtils.getUuid(server, player).whenComplete((uuid, error) -> {
+            UUID found = uuid != null ? uuid.orElse(null) : null;
+            Resolution resolution = found != null
+                    ? new Resolution(found, Long.MAX_VALUE)
+                    : new Resolution(null, System.currentTimeMillis() + UNRESOLVED_RETRY_MILLIS);
+            synchronized (resolvedNames) {
+                resolvedNames.replace(key, Resolution.PENDING, resolution);
+                trimResolvedNames(); // a burst of lookups may have pushed it over, now they can go
+            }
+        });
+        synchronized (resolvedNames) {
+            Resolution resolution = resolvedNames.get(key); // online players are found right away
+            return resolution != null ? resolution.uuid() : null;
+        }
+    }
+
+    /**
+     * drops the least recently used names that aren't being looked up until the limit is met. callers hold the lock.
+     */
+    private void trimResolvedNames() {
+        Iterator<Resolution> it = resolvedNames.values().iterator();
+        while (resolvedNames.size() > RESOLVED_NAMES_LIMIT && it.hasNext()) {
+            if (!it.next().pending()) it.remove();
+        }
+    }
+
+    /**
+     * @param seen the generation from before the clan was read
+     * @return the shared results for the clan, built again if the cached ones show an older name or color
+     */
+    private Results clanResults(Clan clan, long seen) {
+        Results cached = byClan.get(clan.id());
+        if (cached != null && cached.shows(clan)) return cached;
+        Results built = build(clan);
+        byClan.put(clan.id(), built);
+        if (generation.get() != seen) {
+            // built from a clan that was changing, and its members would keep trusting them
+            byClan.remove(clan.id(), built);
+        }
+        return built;
+    }
+
+    private static Results build(Clan clan) {
+        ClanStyle style = ClanStyle.of(clan);
+        return new Results(clan.id(), style,
+                PlaceholderResult.value(Component.literal(style.name())),
+                PlaceholderResult.value(style.coloredName()));
+    }
+
+    private void invalidate(ClanDiff diff) {
+        generation.incrementAndGet();
+        for (UUID player : diff.movedPlayers()) {
+            byPlayer.remove(player);
+        }
+        for (UUID clanId : diff.removed()) {
+            byClan.remove(clanId);
+            leaderNames.remove(clanId);
+        }
+        for (UUID clanId : diff.changed()) {
+            Clan clan = clanManager.getClanById(clanId);
+            if (clan == null) continue;
+            // a promotion or a new member doesn't change what is shown, so only drop results showing something else.
+            // members still holding the dropped results notice on their next lookup
+            byClan.computeIfPresent(clanId, (id, results) -> results.shows(clan) ? results : null);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package mnfu.clantag;
+
+import java.util.*;
+
+/**
+ * An immutable map keyed by player uuid that stores the keys as raw longs in packed arrays, instead of a boxed
+ * {@link UUID} plus an entry object per player. Lookups compare longs and never allocate.
+ *
+ * <p>{@link #with} and {@link #without} return a new index that shares almost all of its structure with
+ * the old one, so moving one player copies a handful of small arrays instead of the whole index. Both are
+ * O(log n), as is {@link #get}. Indexes of many players at once are put together with a {@link Builder}.</p>
+ *
+ * <p>Internally a compressed hash trie (CHAMP), laid out like {@link HashTrieMap}'s but with the keys in a
+ * {@code long[]} next to the values. Null values aren't allowed.</p>
+ */
+public final class UuidIndex<V> extends AbstractMap<UUID, V> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final int MAX_DEPTH = (Integer.SIZE + BITS - 1) / BITS;
+    private static final long[] NO_KEYS = new long[0];
+    private static final Object[] NO_VALUES = new Object[0];
+    private static final Object[] NO_NODES = new Object[0];
+    private static final Node EMPTY_NODE = new Node(0, 0, NO_KEYS, NO_VALUES, NO_NODES);
+    private static final UuidIndex<?> EMPTY = new UuidIndex<>(EMPTY_NODE, 0);
+
+    private final Node root;
+    private final int size;
+
+    private UuidIndex(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> UuidIndex<V> of() {
+        return (UuidIndex<V>) EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (!(key instanceof UUID uuid)) return null;
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        Object node = root;
+        for (int shift = 0; ; shift += BITS) {
+            if (node instanceof Node n) {
+                int bit = 1 << ((hash >>> shift) & MASK);
+                if ((n.dataMap & bit) != 0) {
+                    int i = Integer.bitCount(n.dataMap & (bit - 1));
+                    return n.keys[2 * i] == msb && n.keys[2 * i + 1] == lsb ? (V) n.values[i] : null;
+                }
+                if ((n.nodeMap & bit) == 0) return null;
+                node = n.nodes[Integer.bitCount(n.nodeMap & (bit - 1))];
+            } else {
+                Collision c = (Collision) node;
+                int i = indexOf(c.keys, msb, lsb);
+                return i >= 0 ? (V) c.values[i] : null;
+            }
+        }
+    }
+
+    /**
+     * @return this index with the player mapped to the value, or this index if they already were
+     */
+    public UuidIndex<V> with(UUID key, V value) {
+        Objects.requireNonNull(value);
+        V old = get(key);
+        if (old == value) return this;
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        return new UuidIndex<>(put(root, msb, lsb, value, hash(msb, lsb), 0), old == null ? size + 1 : size);
+    }
+
+    /**
+     * @return this index without the player, or this index if they aren't in it
+     */
+    public UuidIndex<V> without(UUID key) {
+        if (key == null || get(key) == null) return this;
+        if (size == 1) return of();
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        return new UuidIndex<>(remove(root, msb, lsb, hash(msb, lsb), 0), size - 1);
+    }
+
+    @Override
+    public Set<Entry<UUID, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Entry<UUID, V>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    /**
+     * Collects the players of a new index and builds its trie in one go, without the copies of repeated
+     * {@link #with} calls. Each player goes in once.
+     */
+    public static final class Builder<V> {
+        private long[] keys;
+        private Object[] values;
+        private int size;
+
+        public Builder(int expectedSize) {
+            keys = new long[2 * Math.max(expectedSize, 1)];
+            values = new Object[Math.max(expectedSize, 1)];
+        }
+
+        public Builder<V> put(UUID key, V value) {
+            Objects.requireNonNull(value);
+            if (size == values.length) {
+                keys = Arrays.copyOf(keys, 4 * size);
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            keys[2 * size] = key.getMostSignificantBits();
+            keys[2 * size + 1] = key.getLeastSignificantBits();
+            values[size++] = value;
+            return this;
+        }
+
+        public UuidIndex<V> build() {
+            if (size == 0) return of();
+            int[] hashes = new int[size];
+            int[] entries = new int[size];
+            for (int e = 0; e < size; e++) {
+                hashes[e] = hash(keys[2 * e], keys[2 * e + 1]);
+                entries[e] = e;
+            }
+            return new UuidIndex<>(buildNode(keys, values, hashes, entries, 0), size);
+        }
+    }
+
+    /**
+     * walks the trie depth first, handing out the entries stored inline in a node before going into its children.
+     */
+    private final class EntryIterator implements Iterator<Entry<UUID, V>> {
+        private final Node[] nodes = new Node[MAX_DEPTH];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth = 0;
+        private int remaining = size;
+        private long[] keys = root.keys;
+        private Object[] values = root.values;
+        private int next = 0;
+
+        EntryIterator() {
+            nodes[0] = root;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<UUID, V> next() {
+            if (remaining <= 0) throw new NoSuchElementException();
+            while (next == values.length) nextEntries();
+            Entry<UUID, V> entry = new SimpleImmutableEntry<>(new UUID(keys[2 * next], keys[2 * next + 1]), (V) values[next]);
+            next++;
+            remaining--;
+            return entry;
+        }
+
+        private void nextEntries() {
+            while (positions[depth] == nodes[depth].nodes.length) depth--; // done with this node, back up
+            Object child = nodes[depth].nodes[positions[depth]++];
+            if (child instanceof Node node) {
+                depth++;
+                nodes[depth] = node;
+                positions[depth] = 0;
+                keys = node.keys;
+                values = node.values;
+            } else {
+                keys = ((Collision) child).keys;
+                values = ((Collision) child).values;
+            }
+            next = 0;
+        }
+    }
+
+    /**
+     * A CHAMP node. Entries stored inline are marked in dataMap, child nodes in nodeMap, both in bit order.
+     * The i-th entry's uuid is at 2i and 2i+1 of keys, its value at i of values. A child always holds two or more entries.
+     */
+    private record Node(int dataMap, int nodeMap, long[] keys, Object[] values, Object[] nodes) {}
+
+    /** entries whose uuids have equal full hashes, below the last level a hash can tell apart. laid out like a node's */
+    private record Collision(long[] keys, Object[] values) {}
+
+    private static int indexOf(long[] keys, long msb, long lsb) {
+        for (int i = 0; 2 * i < keys.length; i++) {
+            if (keys[2 * i] == msb && keys[2 * i + 1] == lsb) return i;
+        }
+        return -1;
+    }
+
+    private static Node put(Node n, long msb, long lsb, Object value, int hash, int shift) {
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((n.dataMap & bit) != 0) {
+            int i = Integer.bitCount(n.dataMap & (bit - 1));
+            long otherMsb = n.keys[2 * i];
+            long otherLsb = n.keys[2 * i + 1];
+            if (otherMsb == msb && otherLsb == lsb) {
+                Object[] values = n.values.clone();
+                values[i] = value;
+                return new Node(n.dataMap, n.nodeMap, n.keys, values, n.nodes);
+            }
+            // push the entry down into a new child along with the added one
+            Object child = merge(otherMsb, otherLsb, n.values[i], hash(otherMsb, otherLsb), msb, lsb, value, hash, shift + BITS);
+            return new Node(n.dataMap & ~bit, n.nodeMap | bit, removeKey(n.keys, i), removeEntry(n.values, i),
+                    insert(n.nodes, Integer.bitCount(n.nodeMap & (bit - 1)), child));
+        }
+        if ((n.nodeMap & bit) != 0) {
+            int j = Integer.bitCount(n.nodeMap & (bit - 1));
+            Object[] nodes = n.nodes.clone();
+            if (nodes[j] instanceof Node child) {
+                nodes[j] = put(child, msb, lsb, value, hash, shift + BITS);
+            } else {
+                Collision c = (Collision) nodes[j];
+                int i = indexOf(c.keys, msb, lsb);
+                if (i >= 0) {
+                    Object[] values = c.values.clone();
+                    values[i] = value;
+                    nodes[j] = new Collision(c.keys, values);
+                } else {
+                    nodes[j] = new Collision(insertKey(c.keys, c.values.length, msb, lsb), insert(c.values, c.values.length, value));
+                }
+            }
+            return new Node(n.dataMap, n.nodeMap, n.keys, n.values, nodes);
+        }
+        int i = Integer.bitCount(n.dataMap & (bit - 1));
+        return new Node(n.dataMap | bit, n.nodeMap, insertKey(n.keys, i, msb, lsb), insert(n.values, i, value), n.nodes);
+    }
+
+    private static Object merge(long msbA, long lsbA, Object valueA, int hashA, long msbB, long lsbB, Object valueB, int hashB, int shift) {
+        if (shift >= Integer.SIZE) return new Collision(new long[]{msbA, lsbA, msbB, lsbB}, new Object[]{valueA, valueB});
+        int bitA = (hashA >>> shift) & MASK;
+        int bitB = (hashB >>> shift) & MASK;
+        if (bitA == bitB) {
+            return new Node(0, 1 << bitA, NO_KEYS, NO_VALUES,
+                    new Object[]{merge(msbA, lsbA, valueA, hashA, msbB, lsbB, valueB, hashB, shift + BITS)});
+        }
+        return bitA < bitB
+                ? new Node((1 << bitA) | (1 << bitB), 0, new long[]{msbA, lsbA, msbB, lsbB}, new Object[]{valueA, valueB}, NO_NODES)
+                : new Node((1 << bitA) | (1 << bitB), 0, new long[]{msbB, lsbB, msbA, lsbA}, new Object[]{valueB, valueA}, NO_NODES);
+    }
+
+    /**
+     * caller made sure the uuid is in the trie. a returned child holding a single entry is pulled up into
+     * its parent, so every child keeps holding two or more.
+     */
+    private static Node remove(Node n, long msb, long lsb, int hash, int shift) {
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((n.dataMap & bit) != 0) {
+            int i = Integer.bitCount(n.dataMap & (bit - 1));
+            return new Node(n.dataMap & ~bit, n.nodeMap, removeKey(n.keys, i), removeEntry(n.values, i), n.nodes);
+        }
+
+        int j = Integer.bitCount(n.nodeMap & (bit - 1));
+        long[] keys;
+        Object[] values;
+        if (n.nodes[j] instanceof Node child) {
+            Node smaller = remove(child, msb, lsb, hash, shift + BITS);
+            if (smaller.nodeMap != 0 || smaller.values.length > 1) {
+                Object[] nodes = n.nodes.clone();
+                nodes[j] = smaller;
+                return new Node(n.dataMap, n.nodeMap, n.keys, n.values, nodes);
+            }
+            keys = smaller.keys;
+            values = smaller.values;
+        } else {
+            Collision c = (Collision) n.nodes[j];
+            int k = indexOf(c.keys, msb, lsb);
+            keys = removeKey(c.keys, k);
+            values = removeEntry(c.values, k);
+            if (values.length > 1) {
+                Object[] nodes = n.nodes.clone();
+                nodes[j] = new Collision(keys, values);
+                return new Node(n.dataMap, n.nodeMap, n.keys, n.values, nodes);
+            }
+        }
+        // one entry left in the child, store it here instead
+        int i = Integer.bitCount(n.dataMap & (bit - 1));
+        return new Node(n.dataMap | bit, n.nodeMap & ~bit, insertKey(n.keys, i, keys[0], keys[1]), insert(n.values, i, values[0]),
+                removeEntry(n.nodes, j));
+    }
+
+    /**
+     * @param entries which of the builder's entries go below this node
+     */
+    private static Node buildNode(long[] keys, Object[] values, int[] hashes, int[] entries, int shift) {
+        int[] counts = new int[WIDTH];
+        for (int e : entries) {
+            counts[(hashes[e] >>> shift) & MASK]++;
+        }
+        int dataMap = 0;
+        int nodeMap = 0;
+        for (int b = 0; b < WIDTH; b++) {
+            if (counts[b] == 1) dataMap |= 1 << b;
+            else if (counts[b] > 1) nodeMap |= 1 << b;
+        }
+
+        int inline = Integer.bitCount(dataMap);
+        long[] nodeKeys = inline == 0 ? NO_KEYS : new long[2 * inline];
+        Object[] nodeValues = inline == 0 ? NO_VALUES : new Object[inline];
+        int[][] buckets = new int[WIDTH][];
+        for (int e : entries) {
+            int b = (hashes[e] >>> shift) & MASK;
+            int bit = 1 << b;
+            if ((dataMap & bit) != 0) {
+                int i = Integer.bitCount(dataMap & (bit - 1));
+                nodeKeys[2 * i] = keys[2 * e];
+                nodeKeys[2 * i + 1] = keys[2 * e + 1];
+                nodeValues[i] = values[e];
+                continue;
+            }
+            if (buckets[b] == null) {
+                buckets[b] = new int[counts[b]];
+                counts[b] = 0;
+            }
+            buckets[b][counts[b]++] = e;
+        }
+
+        Object[] nodes = nodeMap == 0 ? NO_NODES : new Object[Integer.bitCount(nodeMap)];
+        for (int b = 0, j = 0; b < WIDTH; b++) {
+            if (buckets[b] == null) continue;
+            if (shift + BITS < Integer.SIZE) {
+                nodes[j++] = buildNode(keys, values, hashes, buckets[b], shift + BITS);
+                continue;
+            }
+            long[] collisionKeys = new long[2 * buckets[b].length];
+            Object[] collisionValues = new Object[buckets[b].length];
+            for (int i = 0; i < buckets[b].length; i++) {
+                collisionKeys[2 * i] = keys[2 * buckets[b][i]];
+                collisionKeys[2 * i + 1] = keys[2 * buckets[b][i] + 1];
+                collisionValues[i] = values[buckets[b][i]];
+            }
+            nodes[j++] = new Collision(collisionKeys, collisionValues);
+        }
+        return new Node(dataMap, nodeMap, nodeKeys, nodeValues, nodes);
+    }
+
+    // copy-on-write array helpers
+
+    private static long[] insertKey(long[] keys, int at, long msb, long lsb) {
+        long[] copy = new long[keys.length + 2];
+        System.arraycopy(keys, 0, copy, 0, 2 * at);
+        copy[2 * at] = msb;
+        copy[2 * at + 1] = lsb;
+        System.arraycopy(keys, 2 * at, copy, 2 * at + 2, keys.length - 2 * at);
+        return copy;
+    }
+
+    private static long[] removeKey(long[] keys, int at) {
+        long[] copy = new long[keys.length - 2];
+        System.arraycopy(keys, 0, copy, 0, 2 * at);
+        System.arraycopy(keys, 2 * at + 2, copy, 2 * at, copy.length - 2 * at);
+        return copy;
+    }
+
+    private static Object[] insert(Object[] array, int at, Object value) {
+        Object[] copy = new Object[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+
+    private static Object[] removeEntry(Object[] array, int at) {
+        Object[] copy = new Object[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        System.arraycopy(array, at + 1, copy, at, copy.length - at);
+        return copy;
+    }
+
+    static int hash(long msb, long lsb) {
+        long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L; // random uuids are already well mixed, others like the nil uuid aren't
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,451 @@
+package mnfu.clantag;
+
+import java.util.*;
+
+/**
+ * An immutable set of player uuids that keeps insertion order, used for clan members and officers.
+ *
+ * <p>{@link #with} and {@link #without} return a new set that shares almost all of its structure with
+ * the old one, so adding a player to a clan of thousands copies a handful of small arrays instead of
+ * the whole roster. Both are O(log n), as is {@link #contains}.</p>
+ *
+ * <p>Uuids are never stored as objects, only as pairs of longs in packed arrays, which takes a fraction
+ * of the memory of a {@code LinkedHashSet} and keeps scans over a roster sequential. Iterating creates
+ * the {@link UUID}s on the fly.</p>
+ *
+ * <p>Internally every uuid gets a slot number in the order it was added. A 32-way trie indexed by slot
+ * holds the uuids in order, and a compressed hash trie (CHAMP) holding only slot numbers finds them.
+ * Removing a uuid leaves a hole in the ordered trie, the set is rebuilt once there are more holes than uuids.</p>
+ */
+public final class UuidSet extends AbstractSet<UUID> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final int OCCUPIED = 2 * WIDTH; // index of the bitmap of used slots in an ordered trie leaf
+    private static final int[] NO_SLOTS = new int[0];
+    private static final Object[] NO_NODES = new Object[0];
+    private static final Node EMPTY_NODE = new Node(0, 0, NO_SLOTS, NO_NODES);
+    private static final UuidSet EMPTY = new UuidSet(EMPTY_NODE, null, 0, 0, 0);
+
+    private final Node index;
+    private final Object order; // root of the ordered trie: a leaf (long[]) if orderShift is 0, else Object[], null if empty
+    private final int orderShift; // bits of the slot number the root's children are picked by
+    private final int nextSlot;
+    private final int size;
+
+    private UuidSet(Node index, Object order, int orderShift, int nextSlot, int size) {
+        this.index = index;
+        this.order = order;
+        this.orderShift = orderShift;
+        this.nextSlot = nextSlot;
+        this.size = size;
+    }
+
+    public static UuidSet of() {
+        return EMPTY;
+    }
+
+    public static UuidSet of(UUID uuid) {
+        return EMPTY.with(uuid);
+    }
+
+    /**
+     * @return a set of the given uuids in iteration order, without duplicates and nulls
+     */
+    public static UuidSet copyOf(Collection<UUID> uuids) {
+        if (uuids instanceof UuidSet set) return set;
+        if (uuids.isEmpty()) return EMPTY;
+
+        Collection<UUID> unique = uuids instanceof Set<UUID> ? uuids : new LinkedHashSet<>(uuids);
+        long[] packed = new long[2 * unique.size()];
+        int count = 0;
+        for (UUID uuid : unique) {
+            if (uuid == null) continue;
+            packed[2 * count] = uuid.getMostSignificantBits();
+            packed[2 * count + 1] = uuid.getLeastSignificantBits();
+            count++;
+        }
+        return build(packed, count);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof UUID uuid)) return false;
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        return find(UuidIndex.hash(msb, lsb), msb, lsb) >= 0;
+    }
+
+    /**
+     * @return this set with the uuid added last, or this set if it's already in it
+     */
+    public UuidSet with(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int hash = UuidIndex.hash(msb, lsb);
+        if (find(hash, msb, lsb) >= 0) return this;
+
+        int slot = nextSlot;
+        Object root = order;
+        int shift = orderShift;
+        if (root != null && slot >>> shift >= WIDTH) { // full, add a level on top
+            Object[] grown = new Object[WIDTH];
+            grown[0] = root;
+            root = grown;
+            shift += BITS;
+        }
+        return new UuidSet(put(index, hash, slot, 0), set(root, shift, slot, msb, lsb, true),
+                shift, slot + 1, size + 1);
+    }
+
+    /**
+     * @return this set without the uuid, or this set if it isn't in it
+     */
+    public UuidSet without(UUID uuid) {
+        if (uuid == null) return this;
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int hash = UuidIndex.hash(msb, lsb);
+        int slot = find(hash, msb, lsb);
+        if (slot < 0) return this;
+        if (size == 1) return EMPTY;
+
+        UuidSet removed = new UuidSet(remove(index, hash, slot, 0), set(order, orderShift, slot, 0, 0, false),
+                orderShift, nextSlot, size - 1);
+        if (nextSlot - removed.size > Math.max(WIDTH, removed.size)) return removed.renumbered(); // mostly holes
+        return removed;
+    }
+
+    @Override
+    public Iterator<UUID> iterator() {
+        PackedIterator it = new PackedIterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public UUID next() {
+                int i = it.next();
+                return new UUID(it.leaf[2 * i], it.leaf[2 * i + 1]);
+            }
+        };
+    }
+
+    private UuidSet renumbered() {
+        long[] packed = new long[2 * size];
+        PackedIterator it = new PackedIterator();
+        for (int n = 0; it.hasNext(); n++) {
+            int i = it.next();
+            packed[2 * n] = it.leaf[2 * i];
+            packed[2 * n + 1] = it.leaf[2 * i + 1];
+        }
+        return build(packed, size);
+    }
+
+    /**
+     * walks the ordered trie leaf by leaf. after next(), the uuid is at 2i and 2i+1 of leaf.
+     */
+    private final class PackedIterator {
+        private final Object[][] nodes = new Object[orderShift / BITS][];
+        private final int[] positions = new int[orderShift / BITS];
+        private int depth = 0;
+        private int remaining = size;
+        private long[] leaf;
+        private long pending; // used slots of leaf not visited yet
+
+        PackedIterator() {
+            if (order instanceof long[] root) {
+                leaf = root;
+                pending = root[OCCUPIED];
+            } else if (order != null) {
+                nodes[0] = (Object[]) order;
+            }
+        }
+
+        boolean hasNext() {
+            return remaining > 0;
+        }
+
+        int next() {
+            if (remaining <= 0) throw new NoSuchElementException();
+            while (pending == 0) nextLeaf();
+            int i = Long.numberOfTrailingZeros(pending);
+            pending &= pending - 1;
+            remaining--;
+            return i;
+        }
+
+        private void nextLeaf() {
+            while (true) {
+                if (positions[depth] == WIDTH) { // done with this node, back up
+                    depth--;
+                    continue;
+                }
+                Object child = nodes[depth][positions[depth]++];
+                if (child == null) continue;
+                if (depth == nodes.length - 1) {
+                    leaf = (long[]) child;
+                    pending = leaf[OCCUPIED];
+                    return;
+                }
+                depth++;
+                nodes[depth] = (Object[]) child;
+                positions[depth] = 0;
+            }
+        }
+    }
+
+    private static UuidSet build(long[] packed, int count) {
+        if (count == 0) return EMPTY;
+
+        // the ordered trie, bottom up
+        Object[] level = new Object[(count + MASK) / WIDTH];
+        for (int i = 0; i < level.length; i++) {
+            int n = Math.min(WIDTH, count - i * WIDTH);
+            long[] leaf = new long[OCCUPIED + 1];
+            System.arraycopy(packed, 2 * i * WIDTH, leaf, 0, 2 * n);
+            leaf[OCCUPIED] = n == WIDTH ? 0xFFFFFFFFL : (1L << n) - 1;
+            level[i] = leaf;
+        }
+        int shift = 0;
+        while (level.length > 1) {
+            Object[] parents = new Object[(level.length + MASK) / WIDTH];
+            for (int i = 0; i < parents.length; i++) {
+                Object[] parent = new Object[WIDTH];
+                System.arraycopy(level, i * WIDTH, parent, 0, Math.min(WIDTH, level.length - i * WIDTH));
+                parents[i] = parent;
+            }
+            level = parents;
+            shift += BITS;
+        }
+
+        int[] hashes = new int[count];
+        int[] slots = new int[count];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = UuidIndex.hash(packed[2 * i], packed[2 * i + 1]);
+            slots[i] = i;
+        }
+        return new UuidSet(buildNode(hashes, slots, 0), level[0], shift, count, count);
+    }
+
+    // ordered trie, slot -> uuid
+
+    private static Object set(Object node, int shift, int slot, long msb, long lsb, boolean used) {
+        int i = (slot >>> shift) & MASK;
+        if (shift == 0) {
+            long[] leaf = node != null ? ((long[]) node).clone() : new long[OCCUPIED + 1];
+            leaf[2 * i] = msb;
+            leaf[2 * i + 1] = lsb;
+            leaf[OCCUPIED] = used ? leaf[OCCUPIED] | 1L << i : leaf[OCCUPIED] & ~(1L << i);
+            return leaf[OCCUPIED] == 0 ? null : leaf; // drop emptied branches
+        }
+        Object[] copy = node != null ? ((Object[]) node).clone() : new Object[WIDTH];
+        copy[i] = set(copy[i], shift - BITS, slot, msb, lsb, used);
+        if (!used && copy[i] == null) {
+            for (Object child : copy) {
+                if (child != null) return copy;
+            }
+            return null;
+        }
+        return copy;
+    }
+
+    // hash trie, uuid -> slot
+
+    /**
+     * A CHAMP node. Entries stored inline are marked in dataMap, child nodes in nodeMap, both in bit order.
+     * An entry is only its slot number, the uuid itself is read from the ordered trie. A child always
+     * holds two or more uuids.
+     */
+    private record Node(int dataMap, int nodeMap, int[] slots, Object[] nodes) {}
+
+    /** slots of uuids whose full hashes are equal, below the last level a hash can tell apart */
+    private record Collision(int[] slots) {}
+
+    private int find(int hash, long msb, long lsb) {
+        Object node = index;
+        for (int shift = 0; ; shift += BITS) {
+            if (node instanceof Node n) {
+                int bit = 1 << ((hash >>> shift) & MASK);
+                if ((n.dataMap & bit) != 0) {
+                    int slot = n.slots[Integer.bitCount(n.dataMap & (bit - 1))];
+                    return matches(slot, msb, lsb) ? slot : -1;
+                }
+                if ((n.nodeMap & bit) == 0) return -1;
+                node = n.nodes[Integer.bitCount(n.nodeMap & (bit - 1))];
+            } else {
+                for (int slot : ((Collision) node).slots) {
+                    if (matches(slot, msb, lsb)) return slot;
+                }
+                return -1;
+            }
+        }
+    }
+
+    private boolean matches(int slot, long msb, long lsb) {
+        Object node = order;
+        for (int shift = orderShift; shift > 0; shift -= BITS) {
+            node = ((Object[]) node)[(slot >>> shift) & MASK];
+        }
+        long[] leaf = (long[]) node;
+        int i = slot & MASK;
+        return leaf[2 * i] == msb && leaf[2 * i + 1] == lsb;
+    }
+
+    private int hashOf(int slot) {
+        Object node = order;
+        for (int shift = orderShift; shift > 0; shift -= BITS) {
+            node = ((Object[]) node)[(slot >>> shift) & MASK];
+        }
+        long[] leaf = (long[]) node;
+        int i = slot & MASK;
+        return UuidIndex.hash(leaf[2 * i], leaf[2 * i + 1]);
+    }
+
+    /** caller made sure the uuid isn't in the trie yet */
+    private Node put(Node n, int hash, int slot, int shift) {
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((n.dataMap & bit) != 0) { // push the entry down into a new child along with the added one
+            int i = Integer.bitCount(n.dataMap & (bit - 1));
+            Object child = merge(hashOf(n.slots[i]), n.slots[i], hash, slot, shift + BITS);
+            return new Node(n.dataMap & ~bit, n.nodeMap | bit, removeEntry(n.slots, i),
+                    insert(n.nodes, Integer.bitCount(n.nodeMap & (bit - 1)), child));
+        }
+        if ((n.nodeMap & bit) != 0) {
+            int j = Integer.bitCount(n.nodeMap & (bit - 1));
+            Object[] nodes = n.nodes.clone();
+            nodes[j] = nodes[j] instanceof Node child
+                    ? put(child, hash, slot, shift + BITS)
+                    : new Collision(insert(((Collision) nodes[j]).slots, ((Collision) nodes[j]).slots.length, slot));
+            return new Node(n.dataMap, n.nodeMap, n.slots, nodes);
+        }
+        return new Node(n.dataMap | bit, n.nodeMap, insert(n.slots, Integer.bitCount(n.dataMap & (bit - 1)), slot), n.nodes);
+    }
+
+    private static Object merge(int hashA, int slotA, int hashB, int slotB, int shift) {
+        if (shift >= Integer.SIZE) return new Collision(new int[]{slotA, slotB});
+        int bitA = (hashA >>> shift) & MASK;
+        int bitB = (hashB >>> shift) & MASK;
+        if (bitA == bitB) {
+            return new Node(0, 1 << bitA, NO_SLOTS, new Object[]{merge(hashA, slotA, hashB, slotB, shift + BITS)});
+        }
+        return new Node((1 << bitA) | (1 << bitB), 0, bitA < bitB ? new int[]{slotA, slotB} : new int[]{slotB, slotA}, NO_NODES);
+    }
+
+    /**
+     * caller made sure the slot is in the trie. a returned child holding a single uuid is pulled up into
+     * its parent, so every child keeps holding two or more.
+     */
+    private static Node remove(Node n, int hash, int slot, int shift) {
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((n.dataMap & bit) != 0) {
+            return new Node(n.dataMap & ~bit, n.nodeMap, removeEntry(n.slots, Integer.bitCount(n.dataMap & (bit - 1))), n.nodes);
+        }
+
+        int j = Integer.bitCount(n.nodeMap & (bit - 1));
+        int[] remaining;
+        if (n.nodes[j] instanceof Node child) {
+            Node smaller = remove(child, hash, slot, shift + BITS);
+            if (smaller.nodeMap != 0 || smaller.slots.length > 1) {
+                Object[] nodes = n.nodes.clone();
+                nodes[j] = smaller;
+                return new Node(n.dataMap, n.nodeMap, n.slots, nodes);
+            }
+            remaining = smaller.slots;
+        } else {
+            int[] slots = ((Collision) n.nodes[j]).slots;
+            int k = 0;
+            while (slots[k] != slot) k++;
+            remaining = removeEntry(slots, k);
+            if (remaining.length > 1) {
+                Object[] nodes = n.nodes.clone();
+                nodes[j] = new Collision(remaining);
+                return new Node(n.dataMap, n.nodeMap, n.slots, nodes);
+            }
+        }
+        // one uuid left in the child, store it here instead
+        return new Node(n.dataMap | bit, n.nodeMap & ~bit, insert(n.slots, Integer.bitCount(n.dataMap & (bit - 1)), remaining[0]),
+                removeEntry(n.nodes, j));
+    }
+
+    private static Node buildNode(int[] hashes, int[] slots, int shift) {
+        int[] counts = new int[WIDTH];
+        for (int hash : hashes) {
+            counts[(hash >>> shift) & MASK]++;
+        }
+        int dataMap = 0;
+        int nodeMap = 0;
+        for (int b = 0; b < WIDTH; b++) {
+            if (counts[b] == 1) dataMap |= 1 << b;
+            else if (counts[b] > 1) nodeMap |= 1 << b;
+        }
+
+        int[] dataSlots = dataMap == 0 ? NO_SLOTS : new int[Integer.bitCount(dataMap)];
+        int[][] bucketHashes = new int[WIDTH][];
+        int[][] bucketSlots = new int[WIDTH][];
+        for (int e = 0; e < hashes.length; e++) {
+            int b = (hashes[e] >>> shift) & MASK;
+            int bit = 1 << b;
+            if ((dataMap & bit) != 0) {
+                dataSlots[Integer.bitCount(dataMap & (bit - 1))] = slots[e];
+                continue;
+            }
+            if (bucketHashes[b] == null) {
+                bucketHashes[b] = new int[counts[b]];
+                bucketSlots[b] = new int[counts[b]];
+                counts[b] = 0;
+            }
+            int n = counts[b]++;
+            bucketHashes[b][n] = hashes[e];
+            bucketSlots[b][n] = slots[e];
+        }
+
+        Object[] nodes = nodeMap == 0 ? NO_NODES : new Object[Integer.bitCount(nodeMap)];
+        for (int b = 0, j = 0; b < WIDTH; b++) {
+            if (bucketHashes[b] == null) continue;
+            nodes[j++] = shift + BITS >= Integer.SIZE
+                    ? new Collision(bucketSlots[b])
+                    : buildNode(bucketHashes[b], bucketSlots[b], shift + BITS);
+        }
+        return new Node(dataMap, nodeMap, dataSlots, nodes);
+    }
+
+    // copy-on-write array helpers
+
+    private static int[] insert(int[] array, int at, int value) {
+        int[] copy = new int[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+
+    private static Object[] insert(Object[] array, int at, Object value) {
+        Object[] copy = new Object[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+
+    private static int[] removeEntry(int[] array, int at) {
+        int[] copy = new int[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        System.arraycopy(array, at + 1, copy, at, copy.length - at);
+        return copy;
+    }
+
+    private static Object[] removeEntry(Object[] array, int at) {
+        Object[] copy = new Object[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        System.arraycopy(array, at + 1, copy, at, copy.length - at);
+        return copy;
+    }
+}
@@ -4,33 +4,47 @@ import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import mnfu.clantag.Clan;
+import mnfu.clantag.ClanBackups;
 import mnfu.clantag.ClanManager;
+import mnfu.clantag.ClanMutation;
+import mnfu.clantag.ClanRequest;
+import mnfu.clantag.LookupExecutor;
+import mnfu.clantag.MainThreadExecutor;
 import mnfu.clantag.MojangApi;
+import mnfu.clantag.PlaceholderCache;
 import me.lucko.fabric.api.permissions.v0.Permissions;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.CommandSourceStack;
 
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.ChatFormatting;
 import net.minecraft.server.permissions.PermissionLevel;
 
+import java.io.File;
 import java.util.UUID;
 import java.util.function.Predicate;
 
 import static mnfu.clantag.commands.CommandUtils.getUuid;
 
 public class AdminCommand {
+    private static final File EXPORT_FILE = new File("config/clans/export.json");
     private final ClanManager clanManager;
+    private final ClanBackups backups;
+    private final PlaceholderCache placeholderCache;
 
     private final String addUsageMessage = "Usage: /clan admin add <playerName> <clanName>";
     private final String removeUsageMessage = "Usage: /clan admin remove <playerName> <clanName>";
     private final String transferUsageMessage = "Usage: /clan admin transfer <playerName> <clanName>";
     private final String renameUsageMessage = "Usage: /clan admin rename <\"clanName\"> <newClanName>";
     private final String deleteUsageMessage = "Usage: /clan admin delete <clanName>";
-    private final String cacheUsageMessage = "Usage: /clan admin cache clear";
+    private final String cacheUsageMessage = "Usage: /clan admin cache <clear|stats>";
+    private final String restoreUsageMessage = "Usage: /clan admin backup restore <backupName>";
 
-    public AdminCommand(ClanManager clanManager) {
+    public AdminCommand(ClanManager clanManager, ClanBackups backups, PlaceholderCache placeholderCache) {
         this.clanManager = clanManager;
+        this.backups = backups;
+        this.placeholderCache = placeholderCache;
     }
 
     public LiteralArgumentBuilder<CommandSourceStack> build() {
@@ -170,17 +184,70 @@ public class AdminCommand {
                 .then(Commands.literal("reload")
                         .requires(Permissions.require("clantag.admin.reload", PermissionLevel.ADMINS))
                         .executes(context -> {
-                            boolean reloaded = clanManager.load();
-                            if (reloaded) {
-                                context.getSource().sendSuccess(() -> Component.literal("Reloaded clans.json!"), true);
-                            } else {
-                                context.getSource().sendSuccess(() -> Component.literal("Failed to load or partially loaded clans.json! Manually inputted malformed data?"), true);
-                            }
+                            CommandSourceStack source = context.getSource();
+                            source.sendSuccess(() -> Component.literal("Reloading clans..."), false);
+                            clanManager.reloadAsync(MainThreadExecutor.get()).whenComplete((diff, error) -> {
+                                if (error == null) {
+                                    source.sendSuccess(() -> Component.literal("Reloaded clans: " + diff + "!"), true);
+                                } else {
+                                    source.sendFailure(Component.literal("Failed to reload clans! Manually inputted malformed data? " + error.getMessage()));
+                                }
+                            });
                             return 1;
                         })
                 )
 
-                // cache clear
+                // export
+                .then(Commands.literal("export")
+                        .requires(Permissions.require("clantag.admin.export", PermissionLevel.ADMINS))
+                        .executes(context -> {
+                            if (clanManager.exportJson(EXPORT_FILE)) {
+                                context.getSource().sendSuccess(() -> Component.literal("Exported " + clanManager.clanCount() + " clans to " + EXPORT_FILE.getPath() + "!"), true);
+                                return 1;
+                            }
+                            context.getSource().sendFailure(Component.literal("Failed to write " + EXPORT_FILE.getPath() + "! Check the server log."));
+                            return 0;
+                        })
+                )
+
+                // import
+                .then(Commands.literal("import")
+                        .requires(Permissions.require("clantag.admin.import", PermissionLevel.ADMINS))
+                        .executes(context -> {
+                            if (clanManager.importJson(EXPORT_FILE)) {
+                                context.getSource().sendSuccess(() -> Component.literal("Imported " + clanManager.clanCount() + " clans from " + EXPORT_FILE.getPath() + "!"), true);
+                                return 1;
+                            }
+                            context.getSource().sendFailure(Component.literal("Failed to import " + EXPORT_FILE.getPath() + "! Missing or malformed file?"));
+                            return 0;
+                        })
+                )
+
+                // backup, backup list, backup restore <backupName>
+                .then(Commands.literal("backup")
+                        .requires(Permissions.require("clantag.admin.backup", PermissionLevel.ADMINS))
+                        .then(Commands.literal("list")
+                                .executes(this::executeBackupList)
+                        )
+                        .then(Commands.literal("restore")
+                                .then(Commands.argument("backupName", StringArgumentType.word())
+                                        .suggests((context, builder) -> backups.listAsync().thenApply(names -> {
+                                            for (String name : names) {
+                                                builder.suggest(name);
+                                            }
+                                            return builder.build();
+                                        }))
+                                        .executes(this::executeBackupRestore)
+                                )
+                                .executes(context -> {
+                                    context.getSource().sendFailure(Component.literal(restoreUsageMessage));
+                                    return 0;
+                                })
+                        )
+                        .executes(this::executeBackup)
+                )
+
+                // cache clear|stats
                 .then(Commands.literal("cache")
                         .requires(Permissions.require("clantag.admin.cache", PermissionLevel.ADMINS))
                         .then(Commands.literal("clear")
@@ -192,6 +259,21 @@ public class AdminCommand {
                                     return 1;
                                 })
                         )
+                        .then(Commands.literal("stats")
+                                .executes(context -> {
+                                    LookupExecutor.Stats stats = LookupExecutor.get().stats();
+                                    PlaceholderCache.Stats placeholders = placeholderCache.stats();
+                                    context.getSource().sendSuccess(() -> Component.literal(
+                                            "Player lookups: " + stats.running() + " running (peak " + stats.peakRunning()
+                                                    + ", limit " + stats.maxConcurrent() + "), " + stats.waiting() + " waiting, "
+                                                    + stats.completed() + " done, " + stats.failed() + " failed"
+                                                    + "\nPlaceholders: " + placeholders.hits() + " hits, " + placeholders.misses() + " misses, "
+                                                    + placeholders.players() + " players, " + placeholders.clans() + " clans and "
+                                                    + placeholders.names() + " player names cached"
+                                    ), false);
+                                    return 1;
+                                })
+                        )
                         .executes(context -> {
                             context.getSource().sendFailure(Component.literal(cacheUsageMessage));
                             return 0;
@@ -200,12 +282,57 @@ public class AdminCommand {
 
                 // default response
                 .executes(context -> {
-                    context.getSource().sendFailure(Component.literal("Valid subcommands: add, remove, transfer, rename, delete, cache, reload"));
+                    context.getSource().sendFailure(Component.literal("Valid subcommands: add, remove, transfer, rename, delete, cache, reload, export, import, backup"));
                     return 0;
                 });
 
     }
 
+    private int executeBackup(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        backups.backupAsync(MainThreadExecutor.get()).whenCompleteAsync((name, error) -> {
+            if (error != null) {
+                source.sendFailure(Component.literal("Failed to back up clans! Check the server log."));
+                return;
+            }
+            source.sendSuccess(() -> Component.literal("Backed up clans to " + name + "!"), true);
+        }, MainThreadExecutor.get());
+        return 1;
+    }
+
+    private int executeBackupList(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        backups.listAsync().whenCompleteAsync((names, error) -> {
+            if (error != null) {
+                source.sendFailure(Component.literal("Failed to list backups! Check the server log."));
+                return;
+            }
+            if (names.isEmpty()) {
+                source.sendSuccess(() -> Component.literal("No backups yet."), false);
+                return;
+            }
+            MutableComponent message = Component.literal("Backups (newest first):");
+            for (String name : names) {
+                message.append(Component.literal("\n" + name).withStyle(ChatFormatting.YELLOW));
+            }
+            source.sendSuccess(() -> message, false);
+        }, MainThreadExecutor.get());
+        return 1;
+    }
+
+    private int executeBackupRestore(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        String name = StringArgumentType.getString(context, "backupName");
+        backups.restoreAsync(name, MainThreadExecutor.get()).whenCompleteAsync((count, error) -> {
+            if (error != null) {
+                source.sendFailure(Component.literal("Failed to restore " + name + "! Check the server log."));
+                return;
+            }
+            source.sendSuccess(() -> Component.literal("Restored " + count + " clans from " + name + "!"), true);
+        }, MainThreadExecutor.get());
+        return 1;
+    }
+
     private int executeAdd(CommandContext<CommandSourceStack> context) {
         String clanName = StringArgumentType.getString(context, "clanName");
         String playerName = StringArgumentType.getString(context, "playerName");
@@ -218,21 +345,32 @@ public class AdminCommand {
             return 0;
         }
 
-        getUuid(context, playerName).thenAccept(optPlayerName -> context.getSource().getServer().execute(() -> {
+        getUuid(context, playerName).thenAcceptAsync(optPlayerName -> {
             if (optPlayerName.isEmpty()) {
                 context.getSource().sendFailure(Component.literal("Player not found!"));
                 return;
             }
             UUID playerUuid = optPlayerName.get();
 
-            if (clanManager.playerInAClan(playerUuid)) {
-                context.getSource().sendFailure(Component.literal("Player already in a clan!"));
-                return;
-            }
-
-            clanManager.addMember(clanName, playerUuid);
-            context.getSource().sendSuccess(() -> Component.literal("Added " + playerName + " to clan " + clanName + "!"), true);
-        }));
+            // a player in another clan is moved: removed there and added here as one change, or not at all
+            clanManager.submitBatch(tx -> {
+                tx.require(tx.getClanById(clan.id()) != null, "Clan not found!");
+                Clan currentClan = tx.getPlayerClan(playerUuid);
+                if (currentClan != null) {
+                    tx.require(!currentClan.id().equals(clan.id()), playerName + " is already in " + clanName + "!");
+                    tx.require(!playerUuid.equals(currentClan.leader()),
+                            playerName + " leads " + currentClan.name() + "! They must transfer ownership, or you may delete that clan instead.");
+                    tx.apply(new ClanMutation.RemoveMember(currentClan.id(), playerUuid));
+                }
+                tx.apply(new ClanMutation.AddMember(clan.id(), playerUuid));
+            }).thenAcceptAsync(result -> {
+                if (!result.committed()) {
+                    context.getSource().sendFailure(Component.literal(result.failure() != null ? result.failure() : "Could not add " + playerName + "!"));
+                    return;
+                }
+                context.getSource().sendSuccess(() -> Component.literal("Added " + playerName + " to clan " + clanName + "!"), true);
+            }, MainThreadExecutor.get());
+        }, MainThreadExecutor.get());
         return 1;
     }
 
@@ -247,7 +385,7 @@ public class AdminCommand {
             return 0;
         }
 
-        getUuid(context, playerName).thenAccept(optPlayerUuid -> context.getSource().getServer().execute(() -> {
+        getUuid(context, playerName).thenAcceptAsync(optPlayerUuid -> {
             if (optPlayerUuid.isEmpty()) {
                 context.getSource().sendFailure(Component.literal("Player not found!"));
                 return;
@@ -255,20 +393,20 @@ public class AdminCommand {
 
             UUID playerUuid = optPlayerUuid.get();
 
-            if (!clan.members().contains(playerUuid)) {
-                context.getSource().sendFailure(Component.literal(playerName + " is not in clan " + clanName + "!"));
-                return;
-            }
-
-            // prevent removing the leader accidentally
-            if (playerUuid.equals(clan.leader())) {
-                context.getSource().sendFailure(Component.literal("Cannot remove the leader from their own clan! You may transfer ownership, or delete the clan instead."));
-                return;
-            }
-
-            clanManager.removeMember(clanName, playerUuid);
-            context.getSource().sendSuccess(() -> Component.literal("Removed " + playerName + " from clan " + clanName + "!"), true);
-        }));
+            ClanRequest remove = ClanRequest.of(new ClanMutation.RemoveMember(clan.id(), playerUuid))
+                    .require(current -> current.members().contains(playerUuid), playerName + " is not in clan " + clanName + "!")
+                    // prevent removing the leader accidentally
+                    .require(current -> !playerUuid.equals(current.leader()),
+                            "Cannot remove the leader from their own clan! You may transfer ownership, or delete the clan instead.");
+
+            clanManager.submit(remove).thenAcceptAsync(result -> {
+                if (!result.applied()) {
+                    context.getSource().sendFailure(Component.literal(result.failure() != null ? result.failure() : "Clan not found!"));
+                    return;
+                }
+                context.getSource().sendSuccess(() -> Component.literal("Removed " + playerName + " from clan " + clanName + "!"), true);
+            }, MainThreadExecutor.get());
+        }, MainThreadExecutor.get());
 
         return 1;
     }
@@ -284,30 +422,28 @@ public class AdminCommand {
             return 0;
         }
 
-        getUuid(context, playerName).thenAccept(optUuid ->
-                context.getSource().getServer().execute(() -> {
-                    if (optUuid.isEmpty()) {
-                        context.getSource().sendFailure(Component.literal("Player not found!"));
-                        return;
-                    }
+        getUuid(context, playerName).thenAcceptAsync(optUuid -> {
+            if (optUuid.isEmpty()) {
+                context.getSource().sendFailure(Component.literal("Player not found!"));
+                return;
+            }
 
-                    UUID targetUuid = optUuid.get();
+            UUID targetUuid = optUuid.get();
 
-                    if (targetUuid.equals(clan.leader())) {
-                        context.getSource().sendFailure(Component.literal(playerName + " is already the leader of " + clanName + "!"));
-                        return;
-                    }
+            if (targetUuid.equals(clan.leader())) {
+                context.getSource().sendFailure(Component.literal(playerName + " is already the leader of " + clanName + "!"));
+                return;
+            }
 
-                    boolean success = clanManager.transferLeader(clanName, targetUuid);
-                    if (!success) {
-                        context.getSource().sendFailure(Component.literal(playerName + " is not in " + clanName + "!"));
-                        return;
-                    }
+            boolean success = clanManager.transferLeader(clan.id(), targetUuid);
+            if (!success) {
+                context.getSource().sendFailure(Component.literal(playerName + " is not in " + clanName + "!"));
+                return;
+            }
 
-                    context.getSource().sendSuccess(() -> Component.literal(
-                            "Successfully transferred leadership of " + clanName + " to " + playerName + "!"), true);
-                })
-        );
+            context.getSource().sendSuccess(() -> Component.literal(
+                    "Successfully transferred leadership of " + clanName + " to " + playerName + "!"), true);
+        }, MainThreadExecutor.get());
 
         return 1;
     }
@@ -330,7 +466,7 @@ public class AdminCommand {
             context.getSource().sendSystemMessage(Component.literal("Warning: Proposed new clan name will override length limits!").withStyle(ChatFormatting.YELLOW));
         }
 
-        boolean clanRenamed = clanManager.changeName(oldClanName, newClanName);
+        boolean clanRenamed = clanManager.changeName(oldClan.id(), newClanName);
         if (clanRenamed) {
             context.getSource().sendSuccess(() -> Component.literal("Successfully renamed " + oldClanName + " to " + newClanName), true);
             return 1;
@@ -342,12 +478,8 @@ public class AdminCommand {
 
     private int executeDelete(CommandContext<CommandSourceStack> context) {
         String clanName = StringArgumentType.getString(context, "clanName");
-        if (clanName == null) {
-            context.getSource().sendFailure(Component.literal("Clan not found!"));
-            return 0;
-        }
-        boolean successful = clanManager.deleteClan(clanName);
-        if (successful) {
+        Clan clan = clanName != null ? clanManager.getClan(clanName) : null;
+        if (clan != null && clanManager.deleteClan(clan.id())) {
             context.getSource().sendSuccess(() -> Component.literal("Deleted clan " + clanName + "!"), true);
             return 1;
         } else {
@@ -2,14 +2,14 @@ package mnfu.clantag.commands;
 
 import com.mojang.brigadier.context.CommandContext;
 import mnfu.clantag.Clan;
+import mnfu.clantag.ClanStyle;
+import mnfu.clantag.LookupExecutor;
 import mnfu.clantag.MojangApi;
 import mnfu.clantag.PersistentPlayerCache;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.server.level.ServerPlayer;
-import net.minecraft.network.chat.Style;
 import net.minecraft.network.chat.Component;
-import net.minecraft.network.chat.TextColor;
 
 import java.util.Optional;
 import java.util.UUID;
@@ -48,7 +48,7 @@ public final class CommandUtils {
         return CompletableFuture.supplyAsync(() -> {
             PersistentPlayerCache cache = PersistentPlayerCache.getInstance();
             return (cache != null) ? cache.getUsername(uuid) : Optional.<String>empty();
-        }).thenCompose(cachedOpt -> {
+        }, LookupExecutor.get()).thenCompose(cachedOpt -> {
            if (cachedOpt.isPresent()) return CompletableFuture.completedFuture(cachedOpt);
            // if the following check passes, it's likely a bedrock UUID, and we shouldn't waste time with an API call.
            // if you're reading this, & curious as to why, Java UUIDs will have a nonzero version bit set in this range.
@@ -75,7 +75,7 @@ public final class CommandUtils {
         return CompletableFuture.supplyAsync(() -> {
             PersistentPlayerCache cache = PersistentPlayerCache.getInstance();
             return (cache != null) ? cache.getUuid(playerName) : Optional.<UUID>empty();
-        }).thenCompose(cachedOpt -> {
+        }, LookupExecutor.get()).thenCompose(cachedOpt -> {
             if (cachedOpt.isPresent()) return CompletableFuture.completedFuture(cachedOpt);
             return MojangApi.getUuid(playerName).thenApply(apiOpt -> {
                 apiOpt.ifPresent(uuid -> {
@@ -87,9 +87,10 @@ public final class CommandUtils {
         });
     }
 
+    /**
+     * @return the clan's name in its color, shared, so don't change it
+     */
     public static Component getColoredClanName(Clan clan) {
-        TextColor textColor = TextColor.parseColor(clan.hexColor()).getOrThrow();
-        return Component.literal(clan.name())
-                .setStyle(Style.EMPTY.withColor(textColor));
+        return ClanStyle.of(clan).coloredName();
     }
 }
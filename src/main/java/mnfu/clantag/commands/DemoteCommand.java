@@ -5,6 +5,9 @@ import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import mnfu.clantag.Clan;
 import mnfu.clantag.ClanManager;
+import mnfu.clantag.ClanMutation;
+import mnfu.clantag.ClanRequest;
+import mnfu.clantag.MainThreadExecutor;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.server.level.ServerPlayer;
@@ -60,7 +63,8 @@ public class DemoteCommand {
         }
 
         String targetName = StringArgumentType.getString(context, "playerName");
-        getUuid(context, targetName).thenAccept(optUuid -> context.getSource().getServer().execute(() -> {
+        UUID executorUuid = executor.getUUID();
+        getUuid(context, targetName).thenAcceptAsync(optUuid -> {
             if (optUuid.isEmpty()) {
                 context.getSource().sendFailure(Component.literal("Player not found!"));
                 return;
@@ -78,9 +82,26 @@ public class DemoteCommand {
                 context.getSource().sendFailure(Component.literal(targetName + " is not an Officer!"));
                 return;
             }
-            clanManager.removeOfficer(clan.name(), targetUuid);
-            context.getSource().sendSystemMessage(Component.literal("Demoted " + targetName + " from Officer!"));
-        }));
+
+            // the clan may have changed during the lookup, so the writer checks again right before demoting
+            ClanRequest demote = ClanRequest.of(new ClanMutation.RemoveOfficer(clan.id(), targetUuid))
+                    .require(current -> current.leader().equals(executorUuid),
+                            "You must be a clan leader to use this command!")
+                    .require(current -> current.members().contains(targetUuid),
+                            targetName + " is not in your clan!")
+                    .require(current -> current.officers().contains(targetUuid),
+                            targetName + " is not an Officer!");
+
+            clanManager.submit(demote).thenAcceptAsync(result -> {
+                if (!result.applied()) {
+                    context.getSource().sendFailure(Component.literal(
+                            result.failure() != null ? result.failure() : "Couldn't demote " + targetName + "!"
+                    ));
+                    return;
+                }
+                context.getSource().sendSystemMessage(Component.literal("Demoted " + targetName + " from Officer!"));
+            }, MainThreadExecutor.get());
+        }, MainThreadExecutor.get());
         return 1;
     }
 }
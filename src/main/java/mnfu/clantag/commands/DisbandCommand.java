@@ -57,7 +57,7 @@ public class DisbandCommand {
         }
 
         // now we know they're the leader of their clan, and they've confirmed.
-        boolean success = clanManager.deleteClan(clan.name());
+        boolean success = clanManager.deleteClan(clan.id());
         if (success) {
             context.getSource().sendSystemMessage(Component.literal(
                     "Clan " + clan.name() + " has been disbanded."
@@ -114,6 +114,9 @@ public class HelpCommand {
         message.append(Component.literal("/clan admin rename <\"clanName\"> <newClanName>").withStyle(ChatFormatting.YELLOW)).append(" - Renames a clan (Overrides length limitations)").withStyle(ChatFormatting.GRAY).append("\n");
         message.append(Component.literal("/clan admin transfer <playerName> <clanName>").withStyle(ChatFormatting.YELLOW)).append(" - Transfers clan ownership to <playerName>").withStyle(ChatFormatting.GRAY).append("\n");
         message.append(Component.literal("/clan admin reload").withStyle(ChatFormatting.YELLOW)).append(" - Reloads clans.json from disk").withStyle(ChatFormatting.GRAY).append("\n");
+        message.append(Component.literal("/clan admin export").withStyle(ChatFormatting.YELLOW)).append(" - Writes all clans to export.json").withStyle(ChatFormatting.GRAY).append("\n");
+        message.append(Component.literal("/clan admin import").withStyle(ChatFormatting.YELLOW)).append(" - Replaces all clans with export.json").withStyle(ChatFormatting.GRAY).append("\n");
+        message.append(Component.literal("/clan admin backup [list | restore <backupName>]").withStyle(ChatFormatting.YELLOW)).append(" - Takes, lists or restores backups").withStyle(ChatFormatting.GRAY).append("\n");
         message.append(Component.literal("/clan admin cache clear").withStyle(ChatFormatting.YELLOW)).append(" - Clears the MojangAPI Cache").withStyle(ChatFormatting.GRAY).append("\n");
         message.append(Component.literal("[General Help Page]")
                 .withStyle(style -> style
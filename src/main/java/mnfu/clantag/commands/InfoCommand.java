@@ -5,18 +5,20 @@ import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import mnfu.clantag.Clan;
 import mnfu.clantag.ClanManager;
+import mnfu.clantag.ClanStyle;
+import mnfu.clantag.MainThreadExecutor;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.network.chat.Style;
 import net.minecraft.network.chat.Component;
-import net.minecraft.network.chat.TextColor;
 import net.minecraft.ChatFormatting;
 
 import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
@@ -90,7 +92,7 @@ public class InfoCommand {
     private int executeForPlayer(CommandContext<CommandSourceStack> context) {
         String playerName = StringArgumentType.getString(context, "playerName");
 
-        getUuid(context, playerName).thenAccept(optUuid -> {
+        getUuid(context, playerName).thenAcceptAsync(optUuid -> {
             UUID playerUuid = optUuid.orElse(null);
             if (playerUuid == null) {
                 context.getSource().sendFailure(Component.literal("Player not found!"));
@@ -104,64 +106,55 @@ public class InfoCommand {
             }
 
             displayClanInfo(context, clan);
-        });
+        }, MainThreadExecutor.get());
 
         return 1;
     }
 
     private void displayClanInfo(CommandContext<CommandSourceStack> context, Clan clan) {
-        MutableComponent message = Component.empty();
-        TextColor clanColor = TextColor.parseColor(clan.hexColor()).getOrThrow();
+        // all names are looked up at once, the message is put together on the server thread once they're in
+        CompletableFuture<Optional<String>> leaderNameFuture = getPlayerName(context, clan.leader());
+        CompletableFuture<MutableComponent> officersFuture = formatPlayerList(context, clan.officers(), clan.leader(), clan.officers());
+        CompletableFuture<MutableComponent> membersFuture = formatPlayerList(context, clan.members(), clan.leader(), clan.officers());
 
-        message.append(Component.literal(clan.name())
-                .setStyle(Style.EMPTY.withColor(clanColor)));
-        message.append(Component.literal(" (" + clan.name() + ")").withStyle(ChatFormatting.GRAY))
-                .append("\n");
+        CompletableFuture.allOf(leaderNameFuture, officersFuture, membersFuture).thenRunAsync(() -> {
+            MutableComponent message = Component.empty();
+            ClanStyle style = ClanStyle.of(clan);
 
-        getPlayerName(context, clan.leader()).thenAccept(optLeaderName -> {
-            String leaderName = optLeaderName.orElse("Unknown Player");
+            message.append(style.coloredName());
+            message.append(Component.literal(" (" + clan.name() + ")").withStyle(ChatFormatting.GRAY))
+                    .append("\n");
 
+            String leaderName = leaderNameFuture.join().orElse("Unknown Player");
             message.append(Component.literal("Leader: ").withStyle(ChatFormatting.WHITE))
                     .append(Component.literal(leaderName).withStyle(ChatFormatting.GOLD))
                     .append("\n");
 
-            formatPlayerList(context, clan.officers(), clan.leader(), clan.officers()).thenAccept(officersText -> {
-                if (!clan.officers().isEmpty()) {
-                    message.append(Component.literal("Officers: ").withStyle(ChatFormatting.WHITE))
-                            .append(officersText)
-                            .append("\n");
-                }
-
-                formatPlayerList(context, clan.members(), clan.leader(), clan.officers()).thenAccept(membersText -> {
-                    message.append(Component.literal("Members: ").withStyle(ChatFormatting.WHITE))
-                            .append(membersText)
-                            .append("\n");
-
-                    message.append(Component.literal("Color: ").withStyle(ChatFormatting.WHITE));
-                    MinecraftColor color = MinecraftColor.fromColor(
-                            Integer.parseInt(clan.hexColor().substring(1), 16)
-                    );
-                    if (color != null) {
-                        message.append(Component.literal(color.getDisplayName())
-                                .setStyle(Style.EMPTY.withColor(clanColor)));
-                    } else {
-                        message.append(Component.literal(clan.hexColor())
-                                .setStyle(Style.EMPTY.withColor(clanColor)));
-                    }
-                    message.append(", Access: ").withStyle(ChatFormatting.WHITE);
-                    message.append(Component.literal(clan.isClosed() ? "Invite Only" : "Open")
-                            .withStyle(clan.isClosed() ? ChatFormatting.RED : ChatFormatting.GREEN));
+            if (!clan.officers().isEmpty()) {
+                message.append(Component.literal("Officers: ").withStyle(ChatFormatting.WHITE))
+                        .append(officersFuture.join())
+                        .append("\n");
+            }
 
-                    context.getSource().getServer().execute(() -> context.getSource().sendSystemMessage(message));
-                });
-            });
-        });
+            message.append(Component.literal("Members: ").withStyle(ChatFormatting.WHITE))
+                    .append(membersFuture.join())
+                    .append("\n");
+
+            message.append(Component.literal("Color: ").withStyle(ChatFormatting.WHITE));
+            message.append(Component.literal(style.colorName())
+                    .setStyle(Style.EMPTY.withColor(style.textColor())));
+            message.append(", Access: ").withStyle(ChatFormatting.WHITE);
+            message.append(Component.literal(clan.isClosed() ? "Invite Only" : "Open")
+                    .withStyle(clan.isClosed() ? ChatFormatting.RED : ChatFormatting.GREEN));
+
+            context.getSource().sendSystemMessage(message);
+        }, MainThreadExecutor.get());
     }
 
     private CompletableFuture<MutableComponent> formatPlayerList(CommandContext<CommandSourceStack> context,
-                                                                 LinkedHashSet<UUID> uuids,
+                                                                 Set<UUID> uuids,
                                                                  UUID leaderUuid,
-                                                                 LinkedHashSet<UUID> officerUuids) {
+                                                                 Set<UUID> officerUuids) {
         List<CompletableFuture<MutableComponent>> futures = uuids.stream()
                 .map(uuid ->
                         getPlayerName(context, uuid).thenApply(optName -> {
@@ -5,16 +5,16 @@ import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import mnfu.clantag.Clan;
 import mnfu.clantag.ClanManager;
-import net.minecraft.server.players.PlayerList;
+import mnfu.clantag.MainThreadExecutor;
+import mnfu.clantag.Membership;
+import mnfu.clantag.OnlineMembers;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.network.chat.ClickEvent;
 import net.minecraft.network.chat.HoverEvent;
 import net.minecraft.network.chat.MutableComponent;
-import net.minecraft.network.chat.Style;
 import net.minecraft.network.chat.Component;
-import net.minecraft.network.chat.TextColor;
 import net.minecraft.ChatFormatting;
 
 import java.util.Collection;
@@ -24,10 +24,12 @@ import java.util.UUID;
 public class InviteCommand {
     private final ClanManager clanManager;
     private final InviteManager inviteManager;
+    private final OnlineMembers onlineMembers;
 
-    public InviteCommand(ClanManager clanManager, InviteManager inviteManager) {
+    public InviteCommand(ClanManager clanManager, InviteManager inviteManager, OnlineMembers onlineMembers) {
         this.clanManager = clanManager;
         this.inviteManager = inviteManager;
+        this.onlineMembers = onlineMembers;
     }
 
     public LiteralArgumentBuilder<CommandSourceStack> buildInvite() {
@@ -47,9 +49,10 @@ public class InviteCommand {
                         .suggests((context, suggestionsBuilder) -> {
                             ServerPlayer player = context.getSource().getPlayer();
                             if (player != null) {
-                                Set<String> invites = inviteManager.getInvites(player.getUUID());
-                                for (String clanName : invites) {
-                                    suggestionsBuilder.suggest(clanName);
+                                Set<UUID> invites = inviteManager.getInvites(player.getUUID());
+                                for (UUID clanId : invites) {
+                                    Clan clan = clanManager.getClanById(clanId);
+                                    if (clan != null) suggestionsBuilder.suggest(clan.name());
                                 }
                             }
                             return suggestionsBuilder.buildFuture();
@@ -63,9 +66,10 @@ public class InviteCommand {
                         .suggests((context, suggestionsBuilder) -> {
                             ServerPlayer player = context.getSource().getPlayer();
                             if (player != null) {
-                                Set<String> invites = inviteManager.getInvites(player.getUUID());
-                                for (String clanName : invites) {
-                                    suggestionsBuilder.suggest(clanName);
+                                Set<UUID> invites = inviteManager.getInvites(player.getUUID());
+                                for (UUID clanId : invites) {
+                                    Clan clan = clanManager.getClanById(clanId);
+                                    if (clan != null) suggestionsBuilder.suggest(clan.name());
                                 }
                             }
                             return suggestionsBuilder.buildFuture();
@@ -93,14 +97,14 @@ public class InviteCommand {
             return 0;
         }
 
-        if (!executorClan.leader().equals(executorUuid) && !executorClan.officers().contains(executorUuid)) {
+        if (Membership.Role.of(executorClan, executorUuid) == Membership.Role.MEMBER) {
             context.getSource().sendFailure(Component.literal("You are not the leader or an officer of a clan!"));
             return 0;
         }
 
         String targetName = StringArgumentType.getString(context, "playerName");
 
-        CommandUtils.getUuid(context, targetName).thenAccept(optUuid -> context.getSource().getServer().execute(() -> {
+        CommandUtils.getUuid(context, targetName).thenAcceptAsync(optUuid -> {
             if (optUuid.isEmpty()) {
                 context.getSource().sendFailure(Component.literal("Player not found!"));
                 return;
@@ -108,6 +112,14 @@ public class InviteCommand {
 
             UUID targetUuid = optUuid.get();
 
+            // the lookup took a while, so check again that the executor can still invite for their clan
+            Clan inviterClan = clanManager.getPlayerClan(executorUuid);
+            if (inviterClan == null || !inviterClan.id().equals(executorClan.id())
+                    || Membership.Role.of(inviterClan, executorUuid) == Membership.Role.MEMBER) {
+                context.getSource().sendFailure(Component.literal("You are no longer the leader or an officer of " + executorClan.name() + "!"));
+                return;
+            }
+
             if (targetUuid.equals(executor.getUUID())) {
                 context.getSource().sendFailure(Component.literal("You cannot invite yourself!"));
                 return;
@@ -119,14 +131,14 @@ public class InviteCommand {
                 return;
             }
 
-            if (inviteManager.hasInvite(targetUuid, executorClan.name())) {
-                context.getSource().sendFailure(Component.literal(targetName + " already has a pending invite to " + executorClan.name() + "!"));
+            if (inviteManager.hasInvite(targetUuid, inviterClan.id())) {
+                context.getSource().sendFailure(Component.literal(targetName + " already has a pending invite to " + inviterClan.name() + "!"));
                 return;
             }
 
-            inviteManager.addInvite(targetUuid, executorClan.name());
+            inviteManager.addInvite(targetUuid, inviterClan.id());
 
-            context.getSource().sendSystemMessage(Component.literal("Invited " + targetName + " to " + executorClan.name() + "!"));
+            context.getSource().sendSystemMessage(Component.literal("Invited " + targetName + " to " + inviterClan.name() + "!"));
 
             ServerPlayer targetPlayer = context.getSource().getServer()
                     .getPlayerList()
@@ -136,15 +148,14 @@ public class InviteCommand {
                 MutableComponent inviteMessage = Component.literal("You've been invited to join ")
                         .withStyle(ChatFormatting.YELLOW);
 
-                inviteMessage.append(Component.literal(executorClan.name())
-                        .setStyle(Style.EMPTY.withColor(TextColor.parseColor(executorClan.hexColor()).getOrThrow())));
+                inviteMessage.append(CommandUtils.getColoredClanName(inviterClan));
 
                 inviteMessage.append(Component.literal("! ").withStyle(ChatFormatting.YELLOW));
 
                 MutableComponent acceptButton = Component.literal("[Accept]")
                         .withStyle(style -> style
                                 .withColor(ChatFormatting.GREEN)
-                                .withClickEvent(new ClickEvent.RunCommand("/clan accept " + executorClan.name()))
+                                .withClickEvent(new ClickEvent.RunCommand("/clan accept " + inviterClan.name()))
                                 .withHoverEvent(new HoverEvent.ShowText(Component.literal("Click to accept"))));
 
                 inviteMessage.append(acceptButton);
@@ -153,14 +164,14 @@ public class InviteCommand {
                 MutableComponent declineButton = Component.literal("[Decline]")
                         .withStyle(style -> style
                                 .withColor(ChatFormatting.RED)
-                                .withClickEvent(new ClickEvent.RunCommand("/clan decline " + executorClan.name()))
+                                .withClickEvent(new ClickEvent.RunCommand("/clan decline " + inviterClan.name()))
                                 .withHoverEvent(new HoverEvent.ShowText(Component.literal("Click to decline"))));
 
                 inviteMessage.append(declineButton);
 
                 targetPlayer.sendSystemMessage(inviteMessage);
             }
-        }));
+        }, MainThreadExecutor.get());
 
         return 1;
     }
@@ -184,30 +195,29 @@ public class InviteCommand {
         Clan clan = clanManager.getClan(clanName);
         if (clan == null) {
             context.getSource().sendFailure(Component.literal("That clan no longer exists!"));
-            inviteManager.removeInvite(executorUuid, clanName);
             return 0;
         }
 
-        if (!inviteManager.hasInvite(executorUuid, clan.name())) {
+        if (!inviteManager.hasInvite(executorUuid, clan.id())) {
             context.getSource().sendFailure(Component.literal("You don't have an invite to " + clanName + "!"));
             return 0;
         }
 
-        clanManager.addMember(clan.name(), executorUuid);
+        if (!clanManager.addMember(clan.id(), executorUuid)) {
+            // the clan was disbanded, or the player joined another one, since the checks above
+            context.getSource().sendFailure(Component.literal("Couldn't join " + clan.name() + ", it no longer exists or you're already in a clan!"));
+            return 0;
+        }
 
-        PlayerList pm = context.getSource().getServer().getPlayerList();
-        for (UUID member : clan.members()) {
-            ServerPlayer player = pm.getPlayer(member);
-            if (player != null) {
-                player.sendSystemMessage(Component.literal(executor.getName().getString() + " joined the clan!"));
-            }
+        for (ServerPlayer player : onlineMembers.of(clan.id())) {
+            if (player == executor) continue;
+            player.sendSystemMessage(Component.literal(executor.getName().getString() + " joined the clan!"));
         }
         inviteManager.clearInvitesForPlayer(executorUuid);
 
         MutableComponent message = Component.literal("You've joined ")
                 .withStyle(ChatFormatting.GREEN);
-        message.append(Component.literal(clan.name())
-                .setStyle(Style.EMPTY.withColor(TextColor.parseColor(clan.hexColor()).getOrThrow())));
+        message.append(CommandUtils.getColoredClanName(clan));
         message.append(Component.literal("!").withStyle(ChatFormatting.GREEN));
 
         context.getSource().sendSystemMessage(message);
@@ -227,18 +237,16 @@ public class InviteCommand {
 
         Clan clan = clanManager.getClan(clanName);
         if (clan == null) {
-            // clean up stale invite even if the clan no longer exists
-            inviteManager.removeInvite(executorUuid, clanName);
             context.getSource().sendFailure(Component.literal("That clan no longer exists!"));
             return 0;
         }
 
-        if (!inviteManager.hasInvite(executorUuid, clan.name())) {
+        if (!inviteManager.hasInvite(executorUuid, clan.id())) {
             context.getSource().sendFailure(Component.literal("You don't have an invite to " + clanName + "!"));
             return 0;
         }
 
-        inviteManager.removeInvite(executorUuid, clan.name());
+        inviteManager.removeInvite(executorUuid, clan.id());
 
         context.getSource().sendSystemMessage(Component.literal("Declined invite to " + clanName + ".").withStyle(ChatFormatting.GRAY));
 
@@ -252,7 +260,7 @@ public class InviteCommand {
             return 0;
         }
 
-        Set<String> invites = inviteManager.getInvites(executor.getUUID());
+        Set<UUID> invites = inviteManager.getInvites(executor.getUUID());
 
         if (invites.isEmpty()) {
             context.getSource().sendSystemMessage(Component.literal("You have no pending clan invites.").withStyle(ChatFormatting.GRAY));
@@ -262,20 +270,19 @@ public class InviteCommand {
         MutableComponent message = Component.literal("Pending clan invites:").withStyle(ChatFormatting.YELLOW);
         message.append("\n");
 
-        for (String clanName : invites) {
-            Clan clan = clanManager.getClan(clanName);
+        for (UUID clanId : invites) {
+            Clan clan = clanManager.getClanById(clanId);
             
             if (clan != null) {
                 message.append(Component.literal("• "));
-                message.append(Component.literal(clan.name())
-                        .setStyle(Style.EMPTY.withColor(TextColor.parseColor(clan.hexColor()).getOrThrow())));
+                message.append(CommandUtils.getColoredClanName(clan));
                 
                 message.append(Component.literal(" "));
 
                 MutableComponent acceptButton = Component.literal("[Accept]")
                         .withStyle(style -> style
                                 .withColor(ChatFormatting.GREEN)
-                                .withClickEvent(new ClickEvent.RunCommand("/clan accept " + clanName))
+                                .withClickEvent(new ClickEvent.RunCommand("/clan accept " + clan.name()))
                                 .withHoverEvent(new HoverEvent.ShowText(Component.literal("Click to accept"))));
 
                 message.append(acceptButton);
@@ -284,7 +291,7 @@ public class InviteCommand {
                 MutableComponent declineButton = Component.literal("[Decline]")
                         .withStyle(style -> style
                                 .withColor(ChatFormatting.RED)
-                                .withClickEvent(new ClickEvent.RunCommand("/clan decline " + clanName))
+                                .withClickEvent(new ClickEvent.RunCommand("/clan decline " + clan.name()))
                                 .withHoverEvent(new HoverEvent.ShowText(Component.literal("Click to decline"))));
 
                 message.append(declineButton);
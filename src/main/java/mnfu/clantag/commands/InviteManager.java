@@ -4,26 +4,26 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class InviteManager {
-    // maps uuids -> clan's names they're currently invited to
-    private final Map<UUID, Set<String>> pendingInvites = new ConcurrentHashMap<>();
+    // maps uuids -> ids of the clans they're currently invited to. ids survive renames, so invites do too
+    private final Map<UUID, Set<UUID>> pendingInvites = new ConcurrentHashMap<>();
 
     /**
      * Adds an invite for a player to join a clan.
      * @param playerUuid the UUID of the player being invited
-     * @param clanName the name of the clan they're invited to
+     * @param clanId the id of the clan they're invited to
      */
-    public void addInvite(UUID playerUuid, String clanName) {
-        pendingInvites.computeIfAbsent(playerUuid, k -> ConcurrentHashMap.newKeySet()).add(clanName);
+    public void addInvite(UUID playerUuid, UUID clanId) {
+        pendingInvites.computeIfAbsent(playerUuid, k -> ConcurrentHashMap.newKeySet()).add(clanId);
     }
 
     /**
      * Removes a specific invite for a player.
      * @return true if the invite existed and was removed, false otherwise
      */
-    public boolean removeInvite(UUID playerUuid, String clanName) {
-        Set<String> invites = pendingInvites.get(playerUuid);
+    public boolean removeInvite(UUID playerUuid, UUID clanId) {
+        Set<UUID> invites = pendingInvites.get(playerUuid);
         if (invites != null) {
-            boolean removed = invites.remove(clanName);
+            boolean removed = invites.remove(clanId);
             if (invites.isEmpty()) {
                 pendingInvites.remove(playerUuid);
             }
@@ -34,10 +34,10 @@ public class InviteManager {
 
     /**
      * Gets all pending invites for a player.
-     * @return an unmodifiable set of clan names, or empty set if no invites
+     * @return an unmodifiable set of clan ids, or empty set if no invites
      */
-    public Set<String> getInvites(UUID playerUuid) {
-        Set<String> invites = pendingInvites.get(playerUuid);
+    public Set<UUID> getInvites(UUID playerUuid) {
+        Set<UUID> invites = pendingInvites.get(playerUuid);
         return invites != null ? Collections.unmodifiableSet(new HashSet<>(invites)) : Collections.emptySet();
     }
 
@@ -51,10 +51,10 @@ public class InviteManager {
 
     /**
      * Clears all invites for a specific clan.
-     * @param clanName the name of the clan
+     * @param clanId the id of the clan
      */
-    public void clearInvitesForClan(String clanName) {
-        pendingInvites.values().forEach(invites -> invites.remove(clanName));
+    public void clearInvitesForClan(UUID clanId) {
+        pendingInvites.values().forEach(invites -> invites.remove(clanId));
         pendingInvites.entrySet().removeIf(entry -> entry.getValue().isEmpty());
     }
 
@@ -62,8 +62,8 @@ public class InviteManager {
      * Checks if a player has a pending invite to a specific clan.
      * @return true if the player has a pending invite to the clan
      */
-    public boolean hasInvite(UUID playerUuid, String clanName) {
-        Set<String> invites = pendingInvites.get(playerUuid);
-        return invites != null && invites.contains(clanName);
+    public boolean hasInvite(UUID playerUuid, UUID clanId) {
+        Set<UUID> invites = pendingInvites.get(playerUuid);
+        return invites != null && invites.contains(clanId);
     }
 }
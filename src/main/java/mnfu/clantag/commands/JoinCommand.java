@@ -5,32 +5,30 @@ import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import mnfu.clantag.Clan;
 import mnfu.clantag.ClanManager;
-import net.minecraft.server.players.PlayerList;
+import mnfu.clantag.OnlineMembers;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.network.chat.MutableComponent;
-import net.minecraft.network.chat.Style;
 import net.minecraft.network.chat.Component;
-import net.minecraft.network.chat.TextColor;
 import net.minecraft.ChatFormatting;
 
-import java.util.Map;
-import java.util.UUID;
-
 public class JoinCommand {
     private final ClanManager clanManager;
+    private final OnlineMembers onlineMembers;
 
-    public JoinCommand(ClanManager clanManager) {
+    public JoinCommand(ClanManager clanManager, OnlineMembers onlineMembers) {
         this.clanManager = clanManager;
+        this.onlineMembers = onlineMembers;
     }
 
     public LiteralArgumentBuilder<CommandSourceStack> build() {
         return Commands.literal("join")
                 .then(Commands.argument("clanName", StringArgumentType.greedyString())
                         .suggests((context, builder) -> {
-                            for (Map.Entry<String, Clan> entry : clanManager.getClansMap().entrySet()) {
-                                if (!entry.getValue().isClosed()) builder.suggest(entry.getKey());
+                            for (String canonicalName : clanManager.getAllClansCanonicalNames()) {
+                                Clan clan = clanManager.getClan(canonicalName);
+                                if (clan != null && !clan.isClosed()) builder.suggest(canonicalName);
                             }
                             return builder.buildFuture();
                         })
@@ -56,20 +54,20 @@ public class JoinCommand {
             context.getSource().sendFailure(Component.literal(newClan.name() + " is currently invite only!"));
             return 0;
         } else {
-            clanManager.addMember(newClanName, executor.getUUID());
+            if (!clanManager.addMember(newClan.id(), executor.getUUID())) {
+                // the clan was disbanded, or the player joined another one, since the checks above
+                context.getSource().sendFailure(Component.literal("Couldn't join " + newClan.name() + ", it no longer exists or you're already in a clan!"));
+                return 0;
+            }
 
-            PlayerList pm = context.getSource().getServer().getPlayerList();
-            for (UUID member : newClan.members()) {
-                ServerPlayer player = pm.getPlayer(member);
-                if (player != null) {
-                    player.sendSystemMessage(Component.literal(executor.getName().getString() + " joined the clan!"));
-                }
+            for (ServerPlayer player : onlineMembers.of(newClan.id())) {
+                if (player == executor) continue;
+                player.sendSystemMessage(Component.literal(executor.getName().getString() + " joined the clan!"));
             }
 
             MutableComponent message = Component.literal("You've joined ")
                     .withStyle(ChatFormatting.GREEN);
-            message.append(Component.literal(newClan.name())
-                    .setStyle(Style.EMPTY.withColor(TextColor.parseColor(newClan.hexColor()).getOrThrow())));
+            message.append(CommandUtils.getColoredClanName(newClan));
             message.append(Component.literal("!").withStyle(ChatFormatting.GREEN));
             context.getSource().sendSystemMessage(message);
             return 1;
@@ -4,7 +4,11 @@ import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import mnfu.clantag.Clan;
 import mnfu.clantag.ClanManager;
-import net.minecraft.server.players.PlayerList;
+import mnfu.clantag.ClanMutation;
+import mnfu.clantag.ClanRequest;
+import mnfu.clantag.MainThreadExecutor;
+import mnfu.clantag.Membership;
+import mnfu.clantag.OnlineMembers;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.server.level.ServerPlayer;
@@ -17,9 +21,11 @@ import static mnfu.clantag.commands.CommandUtils.getUuid;
 
 public class KickCommand {
     private final ClanManager clanManager;
+    private final OnlineMembers onlineMembers;
 
-    public KickCommand(ClanManager clanManager) {
+    public KickCommand(ClanManager clanManager, OnlineMembers onlineMembers) {
         this.clanManager = clanManager;
+        this.onlineMembers = onlineMembers;
     }
 
     public LiteralArgumentBuilder<CommandSourceStack> build() {
@@ -32,8 +38,9 @@ public class KickCommand {
                             Clan clan = clanManager.getPlayerClan(executor.getUUID());
                             if (clan == null) return builder.buildFuture();
 
-                            boolean executorIsLeader = clan.leader().equals(executor.getUUID());
-                            boolean executorIsOfficer = clan.officers().contains(executor.getUUID());
+                            Membership.Role executorRole = Membership.Role.of(clan, executor.getUUID());
+                            boolean executorIsLeader = executorRole == Membership.Role.LEADER;
+                            boolean executorIsOfficer = executorRole == Membership.Role.OFFICER;
 
                             CompletableFuture<?>[] nameFutures = clan.members().stream()
                                     .filter(targetUuid -> {
@@ -70,8 +77,9 @@ public class KickCommand {
                                 return 0;
                             }
 
-                            boolean executorIsClanLeader = playerClan.leader().equals(executorUuid);
-                            boolean executorIsClanOfficer = playerClan.officers().contains(executorUuid);
+                            Membership.Role executorRole = Membership.Role.of(playerClan, executorUuid);
+                            boolean executorIsClanLeader = executorRole == Membership.Role.LEADER;
+                            boolean executorIsClanOfficer = executorRole == Membership.Role.OFFICER;
 
                             if (!executorIsClanLeader && !executorIsClanOfficer) {
                                 context.getSource().sendFailure(Component.literal("You are not the leader or an officer of a clan!"));
@@ -79,79 +87,89 @@ public class KickCommand {
                             }
 
                             // async UUID lookup
-                            getUuid(context, targetName).thenAccept(optUuid ->
-                                    context.getSource().getServer().execute(() -> { // back on main thread
-                                        if (optUuid.isEmpty()) {
-                                            context.getSource().sendFailure(Component.literal("Player not found!"));
-                                            return;
-                                        }
-
-                                        UUID targetUuid = optUuid.get();
-
-                                        if (!playerClan.members().contains(targetUuid)) {
-                                            context.getSource().sendFailure(Component.literal(targetName + " is not in clan " + playerClan.name() + "!"));
-                                            return;
-                                        }
-
-                                        // kicking self logic
-                                        if (targetUuid.equals(executorUuid)) {
-                                            if (playerClan.members().size() == 1) {
-                                                clanManager.deleteClan(playerClan.name());
-                                                context.getSource().sendSystemMessage(Component.literal(
-                                                        "You have kicked yourself from " + playerClan.name() +
-                                                                "! Since you were the only member, the clan was disbanded."
-                                                ));
-                                                return;
-                                            }
-                                            if (executorIsClanLeader) {
-                                                context.getSource().sendFailure(Component.literal(
-                                                        "You must transfer ownership before leaving or disbanding the clan!"
-                                                ));
-                                                return;
-                                            }
-                                            clanManager.removeMember(playerClan.name(), targetUuid);
-                                            PlayerList pm = context.getSource().getServer().getPlayerList();
-                                            String executorName = executor.getName().getString();
-                                            for (UUID member : playerClan.members()) {
-                                                if (member.equals(targetUuid)) continue;
-                                                ServerPlayer player = pm.getPlayer(member);
-                                                if (player != null) {
-                                                    player.sendSystemMessage(Component.literal(executorName + " was kicked from the clan by " + executorName));
-                                                }
-                                            }
-                                            context.getSource().sendSystemMessage(Component.literal("You have kicked yourself from " + playerClan.name() + "!"));
+                            getUuid(context, targetName).thenAcceptAsync(optUuid -> { // back on main thread
+                                if (optUuid.isEmpty()) {
+                                    context.getSource().sendFailure(Component.literal("Player not found!"));
+                                    return;
+                                }
+
+                                UUID targetUuid = optUuid.get();
+
+                                if (!playerClan.members().contains(targetUuid)) {
+                                    context.getSource().sendFailure(Component.literal(targetName + " is not in clan " + playerClan.name() + "!"));
+                                    return;
+                                }
+
+                                // kicking self logic. checked again by the writer, since members may have joined or left since
+                                if (targetUuid.equals(executorUuid)) {
+                                    boolean soleMember = playerClan.members().size() == 1;
+                                    ClanRequest selfKick = soleMember
+                                            ? ClanRequest.of(new ClanMutation.Delete(playerClan.id()))
+                                                    .require(clan -> clan.members().size() == 1,
+                                                            "You must transfer ownership before leaving or disbanding the clan!")
+                                                    .require(clan -> clan.leader().equals(executorUuid),
+                                                            "You are no longer the leader of " + playerClan.name() + "!")
+                                            : ClanRequest.of(new ClanMutation.RemoveMember(playerClan.id(), executorUuid))
+                                                    .require(clan -> clan.members().contains(executorUuid),
+                                                            "You are not in clan " + playerClan.name() + "!")
+                                                    .require(clan -> !clan.leader().equals(executorUuid),
+                                                            "You must transfer ownership before leaving or disbanding the clan!");
+
+                                    clanManager.submit(selfKick).thenAcceptAsync(result -> {
+                                        if (!result.applied()) {
+                                            context.getSource().sendFailure(Component.literal(
+                                                    result.failure() != null ? result.failure() : "Could not kick yourself from " + playerClan.name() + "!"
+                                            ));
                                             return;
                                         }
-
-                                        boolean targetIsLeader = targetUuid.equals(playerClan.leader());
-                                        boolean targetIsOfficer = playerClan.officers().contains(targetUuid);
-
-                                        // officer trying to kick leader or officer
-                                        if (executorIsClanOfficer && (targetIsLeader || targetIsOfficer)) {
-                                            context.getSource().sendFailure(Component.literal(
-                                                    "Officers cannot kick other officers or the leader!"
+                                        if (soleMember) {
+                                            context.getSource().sendSystemMessage(Component.literal(
+                                                    "You have kicked yourself from " + playerClan.name() +
+                                                            "! Since you were the only member, the clan was disbanded."
                                             ));
                                             return;
                                         }
 
-                                        // leader can kick anyone, so no check needed
-
-                                        // remove the member
-                                        clanManager.removeMember(playerClan.name(), targetUuid);
-                                        PlayerList pm = context.getSource().getServer().getPlayerList();
                                         String executorName = executor.getName().getString();
-                                        for (UUID member : playerClan.members()) {
-                                            if (member.equals(executorUuid) || member.equals(targetUuid)) continue;
-                                            ServerPlayer player = pm.getPlayer(member);
-                                            if (player != null) {
-                                                player.sendSystemMessage(Component.literal(targetName + " was kicked from the clan by " + executorName));
-                                            }
+                                        for (ServerPlayer player : onlineMembers.of(playerClan.id())) {
+                                            if (player.getUUID().equals(executorUuid)) continue;
+                                            player.sendSystemMessage(Component.literal(executorName + " was kicked from the clan by " + executorName));
                                         }
-                                        context.getSource().sendSystemMessage(Component.literal(
-                                                "Kicked " + targetName + " from " + playerClan.name() + "!"
+                                        context.getSource().sendSystemMessage(Component.literal("You have kicked yourself from " + playerClan.name() + "!"));
+                                    }, MainThreadExecutor.get());
+                                    return;
+                                }
+
+                                // the clan may have changed since the checks above, so the writer checks again
+                                // right before removing. leader can kick anyone, officers only members
+                                ClanRequest kick = ClanRequest.of(new ClanMutation.RemoveMember(playerClan.id(), targetUuid))
+                                        .require(clan -> clan.members().contains(targetUuid),
+                                                targetName + " is not in clan " + playerClan.name() + "!")
+                                        .require(clan -> Membership.Role.of(clan, executorUuid) == Membership.Role.LEADER
+                                                        || Membership.Role.of(clan, executorUuid) == Membership.Role.OFFICER,
+                                                "You are not the leader or an officer of a clan!")
+                                        .require(clan -> Membership.Role.of(clan, executorUuid) == Membership.Role.LEADER
+                                                        || Membership.Role.of(clan, targetUuid) == Membership.Role.MEMBER,
+                                                "Officers cannot kick other officers or the leader!");
+
+                                clanManager.submit(kick).thenAcceptAsync(result -> {
+                                    if (!result.applied()) {
+                                        context.getSource().sendFailure(Component.literal(
+                                                result.failure() != null ? result.failure() : "Could not kick " + targetName + "!"
                                         ));
-                                    })
-                            );
+                                        return;
+                                    }
+
+                                    String executorName = executor.getName().getString();
+                                    for (ServerPlayer player : onlineMembers.of(result.clan().id())) {
+                                        if (player.getUUID().equals(executorUuid)) continue;
+                                        player.sendSystemMessage(Component.literal(targetName + " was kicked from the clan by " + executorName));
+                                    }
+                                    context.getSource().sendSystemMessage(Component.literal(
+                                            "Kicked " + targetName + " from " + result.clan().name() + "!"
+                                    ));
+                                }, MainThreadExecutor.get());
+                            }, MainThreadExecutor.get());
 
                             return 1;
                         })
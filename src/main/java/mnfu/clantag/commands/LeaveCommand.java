@@ -3,7 +3,7 @@ package mnfu.clantag.commands;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import mnfu.clantag.Clan;
 import mnfu.clantag.ClanManager;
-import net.minecraft.server.players.PlayerList;
+import mnfu.clantag.OnlineMembers;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.server.level.ServerPlayer;
@@ -13,9 +13,11 @@ import java.util.UUID;
 
 public class LeaveCommand {
     private final ClanManager clanManager;
+    private final OnlineMembers onlineMembers;
 
-    public LeaveCommand(ClanManager clanManager) {
+    public LeaveCommand(ClanManager clanManager, OnlineMembers onlineMembers) {
         this.clanManager = clanManager;
+        this.onlineMembers = onlineMembers;
     }
 
     public LiteralArgumentBuilder<CommandSourceStack> build() {
@@ -39,7 +41,7 @@ public class LeaveCommand {
                     if (playerClan.leader().equals(executorUuid)) {
                         // if sole member, disband clan
                         if (playerClan.members().size() == 1) {
-                            clanManager.deleteClan(playerClan.name());
+                            clanManager.deleteClan(playerClan.id());
                             context.getSource().sendSystemMessage(Component.literal(
                                     "You have left " + playerClan.name() +
                                             "! Since you were the only member remaining, the clan was disbanded."
@@ -55,14 +57,13 @@ public class LeaveCommand {
                     }
 
                     // normal member leaving
-                    clanManager.removeMember(playerClan.name(), executorUuid);
-                    PlayerList pm = context.getSource().getServer().getPlayerList();
-                    for (UUID member : playerClan.members()) {
-                        if (member.equals(executorUuid)) continue;
-                        ServerPlayer player = pm.getPlayer(member);
-                        if (player != null) {
-                            player.sendSystemMessage(Component.literal(executor.getName().getString() + " left the clan!"));
-                        }
+                    if (!clanManager.removeMember(playerClan.id(), executorUuid)) {
+                        context.getSource().sendFailure(Component.literal("You are no longer in " + playerClan.name() + "!"));
+                        return 0;
+                    }
+                    for (ServerPlayer player : onlineMembers.of(playerClan.id())) {
+                        if (player == executor) continue;
+                        player.sendSystemMessage(Component.literal(executor.getName().getString() + " left the clan!"));
                     }
                     context.getSource().sendSystemMessage(Component.literal(
                             "You have left " + playerClan.name() + "!"
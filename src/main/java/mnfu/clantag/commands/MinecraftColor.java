@@ -24,9 +24,13 @@ public enum MinecraftColor {
     WHITE(0xFFFFFF);
 
     private final int color;
+    private final String displayName;
 
     MinecraftColor(int color) {
         this.color = color;
+        this.displayName = Arrays.stream(name().toLowerCase(Locale.ROOT).split("_"))
+                .map(p -> Character.toUpperCase(p.charAt(0)) + p.substring(1))
+                .collect(Collectors.joining(" "));
     }
 
     /** Raw RGB value (0xRRGGBB) */
@@ -36,10 +40,7 @@ public enum MinecraftColor {
 
     /** "Dark Aqua", "Light Purple", etc */
     public String getDisplayName() {
-        String[] parts = name().toLowerCase(Locale.ROOT).split("_");
-        return Arrays.stream(parts)
-                .map(p -> Character.toUpperCase(p.charAt(0)) + p.substring(1))
-                .collect(Collectors.joining(" "));
+        return displayName;
     }
 
     private static final Map<Integer, MinecraftColor> BY_COLOR =
@@ -5,6 +5,7 @@ import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import mnfu.clantag.Clan;
 import mnfu.clantag.ClanManager;
+import mnfu.clantag.ClanStyle;
 import mnfu.clantag.ClanManager.JoinPolicy;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.CommandSourceStack;
@@ -12,7 +13,6 @@ import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.network.chat.Style;
 import net.minecraft.network.chat.Component;
-import net.minecraft.network.chat.TextColor;
 import net.minecraft.ChatFormatting;
 
 import java.util.Collection;
@@ -89,32 +89,27 @@ public class SetCommand {
             return 0;
         }
 
-        String oldColor = clan.hexColor();
-        boolean success = clanManager.changeColor(clan.name(), newColor);
+        ClanStyle oldStyle = ClanStyle.of(clan);
+        boolean success = clanManager.changeColor(clan.id(), newColor);
         if (!success) {
             context.getSource().sendFailure(Component.literal("Failed to update the color for clan " + clan.name()));
             return 0;
         }
 
-        MutableComponent message = Component.empty();
-        TextColor oldClanTextColor = TextColor.parseColor(oldColor).getOrThrow();
-        TextColor newClanTextColor = TextColor.parseColor(newColor).getOrThrow();
+        Clan recolored = clanManager.getClanById(clan.id());
+        ClanStyle newStyle = recolored != null ? ClanStyle.of(recolored) : oldStyle;
 
+        MutableComponent message = Component.empty();
         message.append(Component.literal("Updated clan color from ").withStyle(ChatFormatting.GRAY))
-                .append(Component.literal(colorDisplayName(oldColor)).setStyle(Style.EMPTY.withColor(oldClanTextColor)))
+                .append(Component.literal(oldStyle.colorName()).setStyle(Style.EMPTY.withColor(oldStyle.textColor())))
                 .append(Component.literal(" to ").withStyle(ChatFormatting.GRAY))
-                .append(Component.literal(colorDisplayName(newColor)).setStyle(Style.EMPTY.withColor(newClanTextColor)))
+                .append(Component.literal(newStyle.colorName()).setStyle(Style.EMPTY.withColor(newStyle.textColor())))
                 .append(Component.literal("!").withStyle(ChatFormatting.GRAY));
 
         context.getSource().sendSystemMessage(message);
         return 1;
     }
 
-    private String colorDisplayName(String colorString) {
-        MinecraftColor color = MinecraftColor.fromColor(Integer.parseInt(colorString.substring(1), 16));
-        return color != null ? color.getDisplayName() : colorString;
-    }
-
     private int executeAccess(CommandContext<CommandSourceStack> context, JoinPolicy newPolicy) {
         ServerPlayer executor = context.getSource().getPlayer();
         if (executor == null) return 0;
@@ -123,7 +118,10 @@ public class SetCommand {
         assert clan != null; // checkClanLeader handles this case
 
         JoinPolicy oldPolicy = clan.isClosed() ? JoinPolicy.INVITE_ONLY : JoinPolicy.OPEN;
-        clanManager.changePolicy(clan.name(), newPolicy);
+        if (!clanManager.changePolicy(clan.id(), newPolicy)) {
+            context.getSource().sendFailure(Component.literal("Failed to update the access for clan " + clan.name()));
+            return 0;
+        }
 
         MutableComponent message = Component.empty()
                 .append(Component.literal("Updated clan access from ").withStyle(ChatFormatting.GRAY))
@@ -169,17 +167,17 @@ public class SetCommand {
             return 0;
         }
 
-        boolean clanRenamed = clanManager.changeName(clan.name(), newClanName);
+        boolean clanRenamed = clanManager.changeName(clan.id(), newClanName);
         if (!clanRenamed) {
             context.getSource().sendFailure(Component.literal("Clan " + newClanName + " already exists, or " + newClanName + " isn't an allowed name!"));
             return 0;
         }
 
-        TextColor clanTextColor = TextColor.parseColor(clan.hexColor()).getOrThrow();
+        Clan renamed = clanManager.getClanById(clan.id());
         MutableComponent message = Component.literal("Updated clan name from ").withStyle(ChatFormatting.GRAY)
-                .append(Component.literal(clan.name()).setStyle(Style.EMPTY.withColor(clanTextColor)))
+                .append(CommandUtils.getColoredClanName(clan))
                 .append(Component.literal(" to ").withStyle(ChatFormatting.GRAY))
-                .append(Component.literal(newClanName).setStyle(Style.EMPTY.withColor(clanTextColor)))
+                .append(renamed != null ? CommandUtils.getColoredClanName(renamed) : Component.literal(newClanName))
                 .append(Component.literal("!").withStyle(ChatFormatting.GRAY));
 
         context.getSource().sendSystemMessage(message);
@@ -5,6 +5,9 @@ import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import mnfu.clantag.Clan;
 import mnfu.clantag.ClanManager;
+import mnfu.clantag.ClanMutation;
+import mnfu.clantag.ClanRequest;
+import mnfu.clantag.MainThreadExecutor;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.server.level.ServerPlayer;
@@ -62,30 +65,37 @@ public class TransferLeadershipCommand {
             return 0;
         }
 
-        getUuid(context, targetName).thenAccept(optUuid ->
-                context.getSource().getServer().execute(() -> {
-                    if (optUuid.isEmpty()) {
-                        context.getSource().sendFailure(Component.literal("Player not found!"));
-                        return;
-                    }
-
-                    UUID targetUuid = optUuid.get();
-
-                    if (targetUuid.equals(executorUuid)) {
-                        context.getSource().sendFailure(Component.literal("You are already the leader of this clan!"));
-                        return;
-                    }
-
-                    boolean success = clanManager.transferLeader(playerClan.name(), targetUuid);
-                    if (!success) {
-                        context.getSource().sendFailure(Component.literal(targetName + " is not in " + playerClan.name()));
-                        return;
-                    }
-
-                    context.getSource().sendSystemMessage(Component.literal(
-                            "Successfully transferred leadership of " + playerClan.name() + " to " + targetName + "!"));
-                })
-        );
+        getUuid(context, targetName).thenAcceptAsync(optUuid -> {
+            if (optUuid.isEmpty()) {
+                context.getSource().sendFailure(Component.literal("Player not found!"));
+                return;
+            }
+
+            UUID targetUuid = optUuid.get();
+
+            if (targetUuid.equals(executorUuid)) {
+                context.getSource().sendFailure(Component.literal("You are already the leader of this clan!"));
+                return;
+            }
+
+            // the leadership may have moved during the lookup, so the writer checks again right before transferring
+            ClanRequest transfer = ClanRequest.of(new ClanMutation.TransferLeader(playerClan.id(), targetUuid))
+                    .require(clan -> clan.leader().equals(executorUuid),
+                            "You are not the leader of a clan!")
+                    .require(clan -> clan.members().contains(targetUuid),
+                            targetName + " is not in " + playerClan.name());
+
+            clanManager.submit(transfer).thenAcceptAsync(result -> {
+                if (!result.applied()) {
+                    context.getSource().sendFailure(Component.literal(
+                            result.failure() != null ? result.failure() : "Couldn't transfer leadership to " + targetName + "!"
+                    ));
+                    return;
+                }
+                context.getSource().sendSystemMessage(Component.literal(
+                        "Successfully transferred leadership of " + result.clan().name() + " to " + targetName + "!"));
+            }, MainThreadExecutor.get());
+        }, MainThreadExecutor.get());
 
         return 1;
     }
@@ -0,0 +1,61 @@
+package mnfu.clantag.storage;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+final class AtomicFiles {
+    private AtomicFiles() {} // prevent instantiation
+
+    /**
+     * writes bytes to a temp file next to the target, then moves it over the target, so readers only ever
+     * see the old or the new contents.
+     *
+     * @param sync whether to force the temp file to disk before moving it
+     */
+    static void write(Path target, byte[] bytes, boolean sync, Logger logger) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+
+        Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (sync) channel.force(true);
+            }
+            try { // attempt atomic move
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                logger.warn("Atomic move not supported on this filesystem, falling back to non-atomic move");
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {}
+            throw e;
+        }
+    }
+
+    /**
+     * moves a file or directory out of the way by renaming it with a suffix, replacing anything already there.
+     */
+    static void retire(Path path, String suffix) throws IOException {
+        if (!Files.exists(path)) return;
+        Path retired = path.resolveSibling(path.getFileName() + suffix);
+        if (Files.isDirectory(retired)) {
+            try (var files = Files.walk(retired)) {
+                for (Path p : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                    Files.delete(p);
+                }
+            }
+        }
+        Files.move(path, retired, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
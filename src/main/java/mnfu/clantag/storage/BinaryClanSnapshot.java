@@ -0,0 +1,219 @@
+package mnfu.clantag.storage;
+
+import mnfu.clantag.Clan;
+import mnfu.clantag.UuidSet;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary form of the clans map, used instead of clans.json when {@code snapshotFormat} is BINARY.
+ *
+ * <p>Layout, all big-endian, all offsets are absolute 32-bit byte offsets:</p>
+ * <pre>
+ * header       magic "CLNS", u16 version, u16 flags, clan count, string count, uuid count,
+ *              clan table offset, string table offset, uuid pool offset, string data offset, file length
+ * clan table   per clan, fixed 60 bytes: name string index, color string index, flags (bit 0 closed,
+ *              bit 1 no leader), leader msb + lsb, first member uuid index, member count,
+ *              first officer uuid index, officer count, clan id msb + lsb
+ * string table per string, fixed 8 bytes: offset into string data, byte length
+ * uuid pool    per uuid, raw 128 bits: msb, lsb
+ * string data  utf-8 bytes, every distinct string stored once
+ * </pre>
+ *
+ * <p>The file is read through a memory-mapped {@link FileChannel} without any reflection or
+ * intermediate tree, and the mapping is released as soon as decoding is done.</p>
+ */
+public final class BinaryClanSnapshot {
+    private static final int MAGIC = 0x434C4E53; // "CLNS"
+    private static final short VERSION = 2;
+    private static final int HEADER_BYTES = 40;
+    private static final int CLAN_BYTES = 60;
+    private static final int STRING_BYTES = 8;
+    private static final int UUID_BYTES = 16;
+    private static final int FLAG_CLOSED = 1;
+    private static final int FLAG_NO_LEADER = 2;
+
+    private BinaryClanSnapshot() {} // prevent instantiation
+
+    public static byte[] encode(Collection<Clan> clans) {
+        Map<String, Integer> stringIndex = new LinkedHashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int stringDataLength = 0;
+        int uuidCount = 0;
+        for (Clan clan : clans) {
+            for (String s : new String[]{clan.name(), clan.hexColor()}) {
+                if (s == null || stringIndex.containsKey(s)) continue;
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                stringIndex.put(s, strings.size());
+                strings.add(bytes);
+                stringDataLength += bytes.length;
+            }
+            uuidCount += size(clan.members()) + size(clan.officers());
+        }
+
+        int clanTableOffset = HEADER_BYTES;
+        int stringTableOffset = clanTableOffset + clans.size() * CLAN_BYTES;
+        int uuidPoolOffset = stringTableOffset + strings.size() * STRING_BYTES;
+        int stringDataOffset = uuidPoolOffset + uuidCount * UUID_BYTES;
+        int length = stringDataOffset + stringDataLength;
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+                .putInt(clans.size()).putInt(strings.size()).putInt(uuidCount)
+                .putInt(clanTableOffset).putInt(stringTableOffset).putInt(uuidPoolOffset).putInt(stringDataOffset)
+                .putInt(length);
+
+        int uuidIndex = 0;
+        for (Clan clan : clans) {
+            int flags = (clan.isClosed() ? FLAG_CLOSED : 0) | (clan.leader() == null ? FLAG_NO_LEADER : 0);
+            buffer.putInt(clan.name() != null ? stringIndex.get(clan.name()) : -1)
+                    .putInt(clan.hexColor() != null ? stringIndex.get(clan.hexColor()) : -1)
+                    .putInt(flags)
+                    .putLong(clan.leader() != null ? clan.leader().getMostSignificantBits() : 0)
+                    .putLong(clan.leader() != null ? clan.leader().getLeastSignificantBits() : 0);
+            buffer.putInt(uuidIndex).putInt(size(clan.members()));
+            uuidIndex += size(clan.members());
+            buffer.putInt(uuidIndex).putInt(size(clan.officers()));
+            uuidIndex += size(clan.officers());
+            buffer.putLong(clan.id().getMostSignificantBits()).putLong(clan.id().getLeastSignificantBits());
+        }
+
+        int dataOffset = 0;
+        for (byte[] bytes : strings) {
+            buffer.putInt(stringDataOffset + dataOffset).putInt(bytes.length);
+            dataOffset += bytes.length;
+        }
+
+        for (Clan clan : clans) {
+            putUuids(buffer, clan.members());
+            putUuids(buffer, clan.officers());
+        }
+
+        for (byte[] bytes : strings) {
+            buffer.put(bytes);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Memory-maps and decodes a snapshot file.
+     *
+     * @param crc if not null, updated with the file's bytes
+     * @return the clans keyed by id
+     */
+    public static Map<UUID, Clan> read(Path path, CRC32 crc) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            ByteBuffer buffer = segment.asByteBuffer();
+            if (crc != null) crc.update(buffer.duplicate());
+            return decode(buffer);
+        }
+    }
+
+    /**
+     * Every count, offset and length is checked against the buffer before anything is read or allocated
+     * with it, so a damaged or hostile file fails with {@link CorruptClanDataException} instead of
+     * allocating huge arrays or reading past its end.
+     */
+    public static Map<UUID, Clan> decode(ByteBuffer buffer) {
+        try {
+            if (buffer.limit() < HEADER_BYTES) throw new CorruptClanDataException("binary clan snapshot is truncated");
+            if (buffer.getInt(0) != MAGIC) throw new CorruptClanDataException("not a binary clan snapshot");
+            short version = buffer.getShort(4);
+            if (version != VERSION) {
+                throw new CorruptClanDataException("unsupported binary clan snapshot version " + version);
+            }
+
+            int clanCount = buffer.getInt(8);
+            int stringCount = buffer.getInt(12);
+            int uuidCount = buffer.getInt(16);
+            int clanTableOffset = buffer.getInt(20);
+            int stringTableOffset = buffer.getInt(24);
+            int uuidPoolOffset = buffer.getInt(28);
+            int length = buffer.getInt(36);
+            if (length != buffer.limit()) throw new CorruptClanDataException("binary clan snapshot is truncated");
+            checkRange(buffer, clanTableOffset, clanCount, CLAN_BYTES, "clan table");
+            checkRange(buffer, stringTableOffset, stringCount, STRING_BYTES, "string table");
+            checkRange(buffer, uuidPoolOffset, uuidCount, UUID_BYTES, "uuid pool");
+
+            String[] strings = new String[stringCount]; // decoded on first use, shared by every clan using them
+            Map<UUID, Clan> clans = new HashMap<>(Math.max(16, clanCount * 4 / 3 + 1));
+            for (int i = 0; i < clanCount; i++) {
+                int entry = clanTableOffset + i * CLAN_BYTES;
+                String name = string(buffer, strings, stringTableOffset, buffer.getInt(entry));
+                String hexColor = string(buffer, strings, stringTableOffset, buffer.getInt(entry + 4));
+                int flags = buffer.getInt(entry + 8);
+                UUID leader = (flags & FLAG_NO_LEADER) != 0 ? null
+                        : new UUID(buffer.getLong(entry + 12), buffer.getLong(entry + 20));
+                UuidSet members = uuids(buffer, uuidPoolOffset, uuidCount, buffer.getInt(entry + 28), buffer.getInt(entry + 32));
+                UuidSet officers = uuids(buffer, uuidPoolOffset, uuidCount, buffer.getInt(entry + 36), buffer.getInt(entry + 40));
+                UUID id = new UUID(buffer.getLong(entry + 44), buffer.getLong(entry + 52));
+                if (name == null) continue;
+                Clan clan = new Clan(id, name, leader, officers, members, hexColor, (flags & FLAG_CLOSED) != 0);
+                clans.put(clan.id(), clan);
+            }
+            return clans;
+        } catch (IndexOutOfBoundsException e) {
+            throw new CorruptClanDataException("binary clan snapshot points outside the file", e);
+        }
+    }
+
+    private static String string(ByteBuffer buffer, String[] strings, int stringTableOffset, int index) {
+        if (index < 0) return null;
+        if (index >= strings.length) throw new CorruptClanDataException("binary clan snapshot has a bad string index");
+        String s = strings[index];
+        if (s == null) {
+            int entry = stringTableOffset + index * STRING_BYTES;
+            int offset = buffer.getInt(entry);
+            int length = buffer.getInt(entry + 4);
+            checkRange(buffer, offset, length, 1, "string");
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes);
+            s = strings[index] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    private static UuidSet uuids(ByteBuffer buffer, int uuidPoolOffset, int uuidCount, int first, int count) {
+        if (first < 0 || count < 0 || count > uuidCount - first) { // first + count could wrap around
+            throw new CorruptClanDataException("binary clan snapshot has a bad member range");
+        }
+        LinkedHashSet<UUID> uuids = new LinkedHashSet<>(Math.max(16, count * 4 / 3 + 1));
+        for (int i = 0; i < count; i++) {
+            int offset = uuidPoolOffset + (first + i) * UUID_BYTES;
+            uuids.add(new UUID(buffer.getLong(offset), buffer.getLong(offset + 8)));
+        }
+        return UuidSet.copyOf(uuids);
+    }
+
+    /**
+     * fails unless the count entries of the given width starting at offset lie between the header and the end
+     * of the buffer. in long math, so huge values can't wrap around into range
+     */
+    private static void checkRange(ByteBuffer buffer, int offset, int count, int width, String what) {
+        if (offset < HEADER_BYTES || count < 0 || offset + (long) count * width > buffer.limit()) {
+            throw new CorruptClanDataException("binary clan snapshot has a bad " + what);
+        }
+    }
+
+    private static void putUuids(ByteBuffer buffer, Set<UUID> uuids) {
+        if (uuids == null) return;
+        for (UUID uuid : uuids) {
+            buffer.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    private static int size(Set<UUID> uuids) {
+        return uuids != null ? uuids.size() : 0;
+    }
+}
@@ -0,0 +1,271 @@
+package mnfu.clantag.storage;
+
+import mnfu.clantag.Clan;
+import mnfu.clantag.ClanMutation;
+import mnfu.clantag.ClanTagConfig.FsyncPolicy;
+import mnfu.clantag.UuidSet;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Clans stored in {@code config/clans/clans.db}, one row per clan, member and officer.
+ *
+ * <p>Every {@link ClanMutation} becomes one or two row updates, so a change costs the same no matter
+ * how many clans there are. Batches of changes are committed as one transaction, and the database runs
+ * in WAL mode so commits are appends. Member and officer order is kept by insertion (rowid) order.</p>
+ *
+ * <p>Rows are keyed by clan id, so a rename only touches the clan's own row.</p>
+ *
+ * <p>Not thread-safe, the caller makes sure only one thread uses it at a time.</p>
+ */
+public class ClanDatabase {
+    private final Path path;
+    private final Logger logger;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private Connection connection;
+
+    public ClanDatabase(Path path, Logger logger) {
+        this.path = path;
+        this.logger = logger;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    public boolean isOpen() {
+        return connection != null;
+    }
+
+    public void open(FsyncPolicy fsyncPolicy) throws IOException {
+        if (connection != null) return;
+        try {
+            Class.forName("org.sqlite.JDBC");
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA journal_mode = WAL");
+                stmt.execute("PRAGMA foreign_keys = ON");
+                stmt.execute("PRAGMA synchronous = " + switch (fsyncPolicy) {
+                    case PER_WRITE -> "FULL";
+                    case BATCHED -> "NORMAL"; // synced at checkpoints, commits in between may be lost on power loss
+                    case OS_MANAGED -> "OFF";
+                });
+            }
+            connection.setAutoCommit(false);
+            createTables();
+            connection.commit();
+        } catch (SQLException | ClassNotFoundException | IllegalArgumentException e) {
+            close();
+            throw new IOException("Failed to open " + path, e);
+        }
+    }
+
+    /**
+     * @return every clan, keyed by clan id
+     */
+    public Map<UUID, Clan> loadAll() throws IOException {
+        try {
+            Map<UUID, Clan> clans = readAll();
+            connection.commit();
+            return clans;
+        } catch (SQLException | IllegalArgumentException e) {
+            rollback();
+            throw new IOException("Failed to read clans from " + path, e);
+        }
+    }
+
+    /**
+     * Applies changes in one transaction. Nothing is applied if any of them fails.
+     */
+    public void apply(List<ClanMutation> mutations) throws SQLException {
+        try {
+            for (ClanMutation mutation : mutations) {
+                apply(mutation);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces every row with the given clans, in one transaction.
+     */
+    public void replaceAll(Map<UUID, Clan> clans) throws SQLException {
+        try {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DELETE FROM clans"); // members and officers cascade
+            }
+            insertAll(clans);
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Folds the WAL back into the database file and closes the connection.
+     */
+    public void close() {
+        if (connection == null) return;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        } catch (SQLException e) {
+            logger.warn("Failed to checkpoint {}", path, e);
+        }
+        try {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+            connection.close();
+        } catch (SQLException e) {
+            logger.error("Failed to close {}", path, e);
+        }
+        statements.clear();
+        connection = null;
+    }
+
+    private void createTables() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS clans (
+                        id TEXT PRIMARY KEY,
+                        name TEXT NOT NULL,
+                        leader TEXT NOT NULL,
+                        hex_color TEXT,
+                        is_closed INTEGER NOT NULL
+                    )
+                    """);
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS members (
+                        player TEXT PRIMARY KEY,
+                        clan TEXT NOT NULL REFERENCES clans (id) ON DELETE CASCADE
+                    )
+                    """);
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS officers (
+                        player TEXT PRIMARY KEY REFERENCES members (player) ON DELETE CASCADE,
+                        clan TEXT NOT NULL REFERENCES clans (id) ON DELETE CASCADE
+                    )
+                    """);
+            stmt.execute("CREATE INDEX IF NOT EXISTS members_clan ON members (clan)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS officers_clan ON officers (clan)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS clans_leader ON clans (leader)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS clans_is_closed ON clans (is_closed)");
+        }
+    }
+
+    private Map<UUID, Clan> readAll() throws SQLException {
+        Map<String, Clan> clans = new HashMap<>();
+        Map<String, List<UUID>> members = new HashMap<>();
+        Map<String, List<UUID>> officers = new HashMap<>();
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT id, name, leader, hex_color, is_closed FROM clans")) {
+                while (rs.next()) {
+                    clans.put(rs.getString(1), new Clan(UUID.fromString(rs.getString(1)), rs.getString(2),
+                            UUID.fromString(rs.getString(3)), null, null, rs.getString(4), rs.getBoolean(5)));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT player, clan FROM members ORDER BY rowid")) {
+                while (rs.next()) {
+                    members.computeIfAbsent(rs.getString(2), k -> new ArrayList<>()).add(UUID.fromString(rs.getString(1)));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT player, clan FROM officers ORDER BY rowid")) {
+                while (rs.next()) {
+                    officers.computeIfAbsent(rs.getString(2), k -> new ArrayList<>()).add(UUID.fromString(rs.getString(1)));
+                }
+            }
+        }
+        Map<UUID, Clan> byClanId = new HashMap<>(Math.max(16, clans.size() * 4 / 3 + 1));
+        clans.forEach((key, clan) -> byClanId.put(clan.id(), new Clan(clan.id(), clan.name(), clan.leader(),
+                UuidSet.copyOf(officers.getOrDefault(key, List.of())),
+                UuidSet.copyOf(members.getOrDefault(key, List.of())), clan.hexColor(), clan.isClosed())));
+        return byClanId;
+    }
+
+    private void insertAll(Map<UUID, Clan> clans) throws SQLException {
+        for (Clan clan : clans.values()) {
+            upsertClan(clan);
+            for (UUID uuid : clan.members()) upsertMember(uuid, clan.id());
+            for (UUID uuid : clan.officers()) upsertOfficer(uuid, clan.id());
+        }
+    }
+
+    private void apply(ClanMutation mutation) throws SQLException {
+        String clanId = mutation.clanId().toString();
+        switch (mutation) {
+            case ClanMutation.Create create -> {
+                upsertClan(new Clan(create.clanId(), create.clanName(), create.leader(), null, null, "#FFFFFF", true));
+                upsertMember(create.leader(), create.clanId());
+            }
+            case ClanMutation.Delete ignored -> update("DELETE FROM clans WHERE id = ?", clanId);
+            case ClanMutation.AddMember add -> upsertMember(add.player(), add.clanId());
+            case ClanMutation.RemoveMember remove ->
+                    update("DELETE FROM members WHERE player = ? AND clan = ?", remove.player().toString(), clanId);
+            case ClanMutation.AddOfficer add -> upsertOfficer(add.player(), add.clanId());
+            case ClanMutation.RemoveOfficer remove ->
+                    update("DELETE FROM officers WHERE player = ? AND clan = ?", remove.player().toString(), clanId);
+            case ClanMutation.TransferLeader transfer -> {
+                update("UPDATE clans SET leader = ? WHERE id = ?", transfer.newLeader().toString(), clanId);
+                update("DELETE FROM officers WHERE player = ? AND clan = ?", transfer.newLeader().toString(), clanId);
+            }
+            case ClanMutation.ChangeColor color ->
+                    update("UPDATE clans SET hex_color = ? WHERE id = ?", color.hexColor(), clanId);
+            case ClanMutation.ChangePolicy policy ->
+                    update("UPDATE clans SET is_closed = ? WHERE id = ?", policy.isClosed(), clanId);
+            case ClanMutation.ChangeName rename ->
+                    update("UPDATE clans SET name = ? WHERE id = ?", rename.newClanName(), clanId);
+        }
+    }
+
+    private void upsertClan(Clan clan) throws SQLException {
+        update("""
+                INSERT INTO clans (id, name, leader, hex_color, is_closed) VALUES (?, ?, ?, ?, ?)
+                ON CONFLICT (id) DO UPDATE SET
+                    name = excluded.name, leader = excluded.leader, hex_color = excluded.hex_color, is_closed = excluded.is_closed
+                """, clan.id().toString(), clan.name(), clan.leader().toString(), clan.hexColor(), clan.isClosed());
+    }
+
+    private void upsertMember(UUID player, UUID clanId) throws SQLException {
+        update("INSERT INTO members (player, clan) VALUES (?, ?) ON CONFLICT (player) DO UPDATE SET clan = excluded.clan",
+                player.toString(), clanId.toString());
+    }
+
+    private void upsertOfficer(UUID player, UUID clanId) throws SQLException {
+        update("INSERT INTO officers (player, clan) VALUES (?, ?) ON CONFLICT (player) DO UPDATE SET clan = excluded.clan",
+                player.toString(), clanId.toString());
+    }
+
+    private void update(String sql, Object... args) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        for (int i = 0; i < args.length; i++) {
+            statement.setObject(i + 1, args[i]);
+        }
+        statement.executeUpdate();
+    }
+
+    private void rollback() {
+        try {
+            if (connection != null) connection.rollback();
+        } catch (SQLException e) {
+            logger.error("Failed to roll back {}", path, e);
+        }
+    }
+}
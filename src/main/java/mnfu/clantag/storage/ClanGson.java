@@ -0,0 +1,95 @@
+package mnfu.clantag.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import mnfu.clantag.Clan;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Gson set up to write clans with hand-written adapters instead of reflection.
+ *
+ * <p>The output is the same as reflective Gson's: fields in record order and null fields left out.
+ * Reading a clan goes through the same checks as {@link ClanJsonReader}.</p>
+ */
+public final class ClanGson {
+
+    private ClanGson() {} // prevent instantiation
+
+    /**
+     * @param pretty whether to indent the output so it's easy to edit by hand, compact output is smaller and faster
+     */
+    public static Gson create(boolean pretty, Logger logger) {
+        GsonBuilder builder = new GsonBuilder()
+                .registerTypeAdapter(UUID.class, new UuidAdapter().nullSafe())
+                .registerTypeAdapter(Clan.class, new ClanAdapter(logger));
+        if (pretty) builder.setPrettyPrinting();
+        return builder.create();
+    }
+
+    private static final class UuidAdapter extends TypeAdapter<UUID> {
+        @Override
+        public void write(JsonWriter out, UUID uuid) throws IOException {
+            out.value(uuid.toString());
+        }
+
+        @Override
+        public UUID read(JsonReader in) throws IOException {
+            String s = in.nextString();
+            try {
+                return UUID.fromString(s);
+            } catch (IllegalArgumentException e) {
+                throw new JsonSyntaxException("Invalid uuid " + s + " at " + in.getPreviousPath(), e);
+            }
+        }
+    }
+
+    private static final class ClanAdapter extends TypeAdapter<Clan> {
+        private final Logger logger;
+
+        ClanAdapter(Logger logger) {
+            this.logger = logger;
+        }
+
+        @Override
+        public void write(JsonWriter out, Clan clan) throws IOException {
+            if (clan == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (clan.id() != null) out.name("id").value(clan.id().toString());
+            if (clan.name() != null) out.name("name").value(clan.name());
+            if (clan.leader() != null) out.name("leader").value(clan.leader().toString());
+            if (clan.officers() != null) writeUuids(out.name("officers"), clan.officers());
+            if (clan.members() != null) writeUuids(out.name("members"), clan.members());
+            if (clan.hexColor() != null) out.name("hexColor").value(clan.hexColor());
+            out.name("isClosed").value(clan.isClosed());
+            out.endObject();
+        }
+
+        @Override
+        public Clan read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return ClanJsonReader.readClan(in, in.getPath(), logger);
+        }
+
+        private static void writeUuids(JsonWriter out, Iterable<UUID> uuids) throws IOException {
+            out.beginArray();
+            for (UUID uuid : uuids) {
+                if (uuid != null) out.value(uuid.toString());
+            }
+            out.endArray();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package mnfu.clantag.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import mnfu.clantag.ClanMutation;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of {@link ClanMutation}s made since clans.json was last written.
+ *
+ * <p>The first line names the snapshot the journal applies on top of, by the CRC32 of its bytes:
+ * {@code CLANJOURNAL 1 <crc>}. Every following line is one record, {@code <crc> <json>}, where the
+ * crc covers the json. Replay stops at the first record that is cut off or doesn't match its
+ * checksum, so a crash mid-write loses at most that record.</p>
+ *
+ * <p>Because the header is tied to the snapshot's contents, a journal left behind after clans.json
+ * was rewritten (by compaction, or by hand) no longer matches and is simply ignored.</p>
+ */
+public class ClanJournal {
+    private static final String HEADER_PREFIX = "CLANJOURNAL 1 ";
+    private static final Map<String, Class<? extends ClanMutation>> TYPES = new HashMap<>();
+
+    static {
+        for (Class<?> type : ClanMutation.class.getPermittedSubclasses()) {
+            TYPES.put(type.getSimpleName(), type.asSubclass(ClanMutation.class));
+        }
+    }
+
+    private final Path path;
+    private final Logger logger;
+    private final Gson gson;
+    private FileChannel channel;
+
+    public ClanJournal(Path path, Logger logger) {
+        this.path = path;
+        this.logger = logger;
+        this.gson = ClanGson.create(false, logger); // one record per line, so never pretty printed
+    }
+
+    /**
+     * @return the CRC32 of a snapshot's bytes, or 0 if there is no snapshot
+     */
+    public static long checksum(byte[] snapshot) {
+        if (snapshot == null) return 0;
+        CRC32 crc = new CRC32();
+        crc.update(snapshot);
+        return crc.getValue();
+    }
+
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    /**
+     * Reads every intact record, provided the journal belongs to the snapshot with the given checksum.
+     * A torn tail is cut off the file so later appends start on a clean line.
+     *
+     * @return the records in order, or null if there is no journal or it belongs to another snapshot
+     */
+    @Nullable
+    public List<ClanMutation> read(long snapshotChecksum) throws IOException {
+        if (!Files.exists(path)) return null;
+        byte[] bytes = Files.readAllBytes(path);
+
+        int headerEnd = indexOf(bytes, 0);
+        if (headerEnd < 0) return null;
+        String header = new String(bytes, 0, headerEnd, StandardCharsets.UTF_8);
+        if (!header.startsWith(HEADER_PREFIX)) {
+            logger.warn("Ignoring {}, unrecognized header", path);
+            return null;
+        }
+        long base;
+        try {
+            base = Long.parseLong(header.substring(HEADER_PREFIX.length()).trim(), 16);
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring {}, unrecognized header", path);
+            return null;
+        }
+        if (base != snapshotChecksum) {
+            logger.info("Ignoring {}, it belongs to an older version of clans.json", path);
+            return null;
+        }
+
+        List<ClanMutation> mutations = new ArrayList<>();
+        int start = headerEnd + 1;
+        while (start < bytes.length) {
+            int end = indexOf(bytes, start);
+            ClanMutation mutation = end < 0 ? null : decode(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            if (mutation == null) break;
+            mutations.add(mutation);
+            start = end + 1;
+        }
+
+        if (start < bytes.length) {
+            logger.warn("Discarding {} byte(s) of incomplete or corrupt records at the end of {}", bytes.length - start, path);
+            try (FileChannel truncate = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncate.truncate(start);
+                truncate.force(true);
+            }
+        }
+        return mutations;
+    }
+
+    /**
+     * Opens the journal for appending.
+     *
+     * @param snapshotChecksum checksum of the snapshot the records apply to
+     * @param fresh if true, any existing records are thrown away and a new header is written
+     */
+    public void open(long snapshotChecksum, boolean fresh) throws IOException {
+        close();
+        if (fresh || !Files.exists(path)) {
+            byte[] header = (HEADER_PREFIX + Long.toHexString(snapshotChecksum) + "\n").getBytes(StandardCharsets.UTF_8);
+            AtomicFiles.write(path, header, true, logger);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public void append(ClanMutation mutation) throws IOException {
+        if (channel == null) throw new IOException("Journal is not open");
+        JsonObject json = gson.toJsonTree(mutation).getAsJsonObject();
+        json.addProperty("op", mutation.getClass().getSimpleName());
+        String body = gson.toJson(json);
+
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        String line = Long.toHexString(crc.getValue()) + " " + body + "\n";
+        writeFully(channel, ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public void sync() throws IOException {
+        if (channel != null) channel.force(false);
+    }
+
+    public long size() {
+        try {
+            return channel != null ? channel.size() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public void close() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error("Failed to close {}", path, e);
+        }
+        channel = null;
+    }
+
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    private ClanMutation decode(String line) {
+        int space = line.indexOf(' ');
+        if (space < 0) return null;
+        try {
+            String body = line.substring(space + 1);
+            CRC32 crc = new CRC32();
+            crc.update(body.getBytes(StandardCharsets.UTF_8));
+            if (crc.getValue() != Long.parseLong(line.substring(0, space), 16)) return null;
+
+            JsonObject json = JsonParser.parseString(body).getAsJsonObject();
+            String op = json.remove("op").getAsString();
+            Class<? extends ClanMutation> type = TYPES.get(op);
+            return type != null ? gson.fromJson(json, type) : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static int indexOf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package mnfu.clantag.storage;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import mnfu.clantag.Clan;
+import mnfu.clantag.UuidSet;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Streams clans.json (and shards) with a {@link JsonReader}, building each {@link Clan} directly
+ * instead of going through a parsed tree or reflection.
+ *
+ * <p>Each clan is checked as it is read. A clan without a name or leader is skipped, and so are
+ * member and officer entries that aren't valid UUIDs, fields of the wrong type, and unknown fields.
+ * Only a file that isn't valid json at all fails the load. Resolving players listed in more than one
+ * clan is left to the caller, once every clan has been read.</p>
+ *
+ * <p>Files written before clans had ids are keyed by canonical name and have no id field, those clans get
+ * the id {@link Clan#legacyId} derives from their name.</p>
+ */
+public final class ClanJsonReader {
+
+    private ClanJsonReader() {} // prevent instantiation
+
+    /**
+     * Reads a clans map from a file.
+     *
+     * @param crc if not null, updated with the file's bytes
+     * @return the clans keyed by id, or null if the file holds none
+     * @throws com.google.gson.JsonParseException if the file isn't valid json
+     */
+    @Nullable
+    public static Map<UUID, Clan> readClans(Path path, @Nullable CRC32 crc, Logger logger) throws IOException {
+        try (InputStream stream = crc != null ? new CheckedInputStream(Files.newInputStream(path), crc) : Files.newInputStream(path)) {
+            JsonReader reader = reader(stream);
+            Map<UUID, Clan> clans = readClans(reader, path, logger);
+            stream.transferTo(OutputStream.nullOutputStream()); // trailing bytes still count towards the checksum
+            return clans;
+        }
+    }
+
+    /**
+     * Reads a single clan from a file.
+     *
+     * @return the clan, or null if the file holds no valid clan
+     * @throws com.google.gson.JsonParseException if the file isn't valid json
+     */
+    @Nullable
+    public static Clan readClan(Path path, Logger logger) throws IOException {
+        try (InputStream stream = Files.newInputStream(path)) {
+            JsonReader reader = reader(stream);
+            try {
+                if (reader.peek() == JsonToken.END_DOCUMENT) return null;
+                return readClan(reader, path.getFileName().toString(), logger);
+            } catch (MalformedJsonException | EOFException | IllegalStateException e) {
+                throw new JsonSyntaxException(e);
+            }
+        }
+    }
+
+    private static JsonReader reader(InputStream stream) {
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)));
+        reader.setStrictness(Strictness.LEGACY_STRICT); // accept what Gson.fromJson accepted
+        return reader;
+    }
+
+    private static Map<UUID, Clan> readClans(JsonReader reader, Path path, Logger logger) throws IOException {
+        try {
+            JsonToken first;
+            try {
+                first = reader.peek();
+            } catch (EOFException e) {
+                return null; // empty file
+            }
+            if (first == JsonToken.NULL) return null;
+
+            Map<UUID, Clan> clans = new HashMap<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                Clan clan = readClan(reader, key, logger);
+                if (clan == null) continue;
+                if (clans.putIfAbsent(clan.id(), clan) != null) {
+                    logger.warn("Clan {} is listed twice in {}, keeping the first", key, path.getFileName());
+                }
+            }
+            reader.endObject();
+            return clans;
+        } catch (MalformedJsonException | EOFException | IllegalStateException e) {
+            throw new JsonSyntaxException("Malformed " + path.getFileName(), e);
+        }
+    }
+
+    static Clan readClan(JsonReader reader, String where, Logger logger) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            logger.warn("Skipping clan {}, it isn't an object", where);
+            return null;
+        }
+
+        UUID id = null;
+        String name = null;
+        UUID leader = null;
+        UuidSet officers = null;
+        UuidSet members = null;
+        String hexColor = null;
+        boolean isClosed = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id" -> id = nextUuid(reader);
+                case "name" -> name = nextString(reader);
+                case "leader" -> leader = nextUuid(reader);
+                case "officers" -> officers = nextUuids(reader);
+                case "members" -> members = nextUuids(reader);
+                case "hexColor" -> hexColor = nextString(reader);
+                case "isClosed" -> isClosed = nextBoolean(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (name == null || leader == null) {
+            logger.warn("Skipping clan {}, it has no {}", where, name == null ? "name" : "valid leader");
+            return null;
+        }
+        return new Clan(id, name, leader, officers, members, hexColor, isClosed);
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) return reader.nextString();
+        reader.skipValue();
+        return null;
+    }
+
+    private static boolean nextBoolean(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BOOLEAN) return reader.nextBoolean();
+        if (token == JsonToken.STRING) return Boolean.parseBoolean(reader.nextString());
+        reader.skipValue();
+        return false;
+    }
+
+    private static UUID nextUuid(JsonReader reader) throws IOException {
+        String s = nextString(reader);
+        if (s == null) return null;
+        try {
+            return UUID.fromString(s);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static UuidSet nextUuids(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        LinkedHashSet<UUID> uuids = new LinkedHashSet<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            UUID uuid = nextUuid(reader);
+            if (uuid != null) uuids.add(uuid);
+        }
+        reader.endArray();
+        return UuidSet.copyOf(uuids);
+    }
+}
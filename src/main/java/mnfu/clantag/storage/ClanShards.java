@@ -0,0 +1,121 @@
+package mnfu.clantag.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import mnfu.clantag.Clan;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * One json file per clan under {@code config/clans/shards/}, named after the clan id.
+ *
+ * <p>Only the clans that changed get rewritten, and loading reads the files in parallel. A file that
+ * can't be read is moved to {@code shards/quarantine/} so it only takes its own clan out, instead of
+ * disabling saves for everyone, and so it doesn't get overwritten before an admin can look at it.</p>
+ */
+public class ClanShards {
+    private static final String EXTENSION = ".json";
+
+    private final Path directory;
+    private final Gson gson;
+    private final Logger logger;
+
+    public ClanShards(Path directory, Gson gson, Logger logger) {
+        this.directory = directory;
+        this.gson = gson;
+        this.logger = logger;
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    public boolean exists() {
+        if (!Files.isDirectory(directory)) return false;
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.anyMatch(ClanShards::isShard);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return every readable clan, keyed by clan id
+     */
+    public Map<UUID, Clan> loadAll() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(ClanShards::isShard).toList();
+        }
+
+        Map<UUID, Clan> clans = new ConcurrentHashMap<>();
+        paths.parallelStream().forEach(path -> {
+            try {
+                Clan clan = ClanJsonReader.readClan(path, logger);
+                if (clan == null) throw new JsonParseException("shard holds no valid clan");
+                Clan existing = clans.putIfAbsent(clan.id(), clan);
+                if (existing != null) {
+                    logger.warn("Clan {} is stored twice, ignoring {}", clan.name(), path.getFileName());
+                }
+            } catch (IOException | JsonParseException e) {
+                logger.error("Failed to load clan shard {}, moving it to quarantine", path.getFileName(), e);
+                quarantine(path);
+            }
+        });
+        return new HashMap<>(clans);
+    }
+
+    /**
+     * Writes one clan, or deletes its file if the clan is null.
+     */
+    public void write(UUID clanId, @Nullable Clan clan, boolean sync) throws IOException {
+        Path path = directory.resolve(fileName(clanId));
+        if (clan == null) {
+            Files.deleteIfExists(path);
+            return;
+        }
+        AtomicFiles.write(path, gson.toJson(clan).getBytes(StandardCharsets.UTF_8), sync, logger);
+    }
+
+    /**
+     * Writes every clan and deletes files of clans that no longer exist.
+     */
+    public void writeAll(Map<UUID, Clan> clans, boolean sync) throws IOException {
+        Set<String> keep = new HashSet<>();
+        for (Map.Entry<UUID, Clan> entry : clans.entrySet()) {
+            write(entry.getKey(), entry.getValue(), sync);
+            keep.add(fileName(entry.getKey()));
+        }
+        if (!Files.isDirectory(directory)) return;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(ClanShards::isShard).toList()) {
+                if (!keep.contains(path.getFileName().toString())) Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private void quarantine(Path path) {
+        try {
+            Path quarantine = directory.resolve("quarantine");
+            Files.createDirectories(quarantine);
+            Files.move(path, quarantine.resolve(path.getFileName() + "." + System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.error("Failed to quarantine {}", path, e);
+        }
+    }
+
+    private static boolean isShard(Path path) {
+        return Files.isRegularFile(path) && path.getFileName().toString().endsWith(EXTENSION);
+    }
+
+    static String fileName(UUID clanId) {
+        return clanId + EXTENSION;
+    }
+}
@@ -0,0 +1,105 @@
+package mnfu.clantag.storage;
+
+import mnfu.clantag.Clan;
+import mnfu.clantag.ClanMutation;
+import mnfu.clantag.ClanTagConfig;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Where {@link mnfu.clantag.ClanManager} keeps its clans between restarts.
+ *
+ * <p>The manager owns the clans map, keyed by clan id, and is the only caller, one change at a time. It hands every
+ * change to the store as a {@link ClanMutation} right after applying it, along with the map as it looks afterwards, so a
+ * store can either record the change or write the map. Every map it hands over is a read-only version that never
+ * changes afterwards, so stores can keep it and read it from any thread.</p>
+ */
+public interface ClanStore {
+
+    /**
+     * Reads every stored clan, including changes that were still waiting to be written.
+     * The result still has to go through the manager's load checks.
+     *
+     * @return the stored clans, or null if nothing has been stored yet
+     * @throws com.google.gson.JsonParseException if stored data is malformed
+     * @throws CorruptClanDataException if stored data is malformed
+     */
+    @Nullable
+    Map<UUID, Clan> loadAll() throws IOException;
+
+    /**
+     * Starts over from freshly loaded and checked clans. Anything not yet written is older, so it's dropped.
+     */
+    void reset(Map<UUID, Clan> clans);
+
+    /**
+     * Records a change that was just applied to the given clans map.
+     */
+    void applyMutation(ClanMutation mutation, Map<UUID, Clan> clans);
+
+    /**
+     * Records several changes that were just applied together, in order, to the given clans map. Stores
+     * that can should write them as one.
+     */
+    default void applyMutations(List<ClanMutation> mutations, Map<UUID, Clan> clans) {
+        for (ClanMutation mutation : mutations) {
+            applyMutation(mutation, clans);
+        }
+    }
+
+    /**
+     * Writes the whole clans map, now or soon.
+     */
+    void flush(Map<UUID, Clan> clans);
+
+    /**
+     * Replaces everything stored with the given clans, on the calling thread.
+     *
+     * @return true if the clans were written
+     */
+    boolean replaceAll(Map<UUID, Clan> clans);
+
+    /**
+     * Writes the given clans one last time and releases any threads and files. Call on server shutdown.
+     */
+    void close(Map<UUID, Clan> clans);
+
+    /**
+     * Releases any threads and files without writing anything, dropping changes that are still waiting.
+     * Call on server shutdown instead of {@link #close(Map)} when stored data is broken and mustn't be overwritten.
+     */
+    void close();
+
+    /**
+     * @return the file admins may edit by hand while the server runs, or null if this store has none
+     */
+    @Nullable
+    default Path editableFile() {
+        return null;
+    }
+
+    /**
+     * @return true if {@link #editableFile()} holds something other than what this store last read or wrote
+     */
+    default boolean changedOnDisk() {
+        return false;
+    }
+
+    /**
+     * @param file clans.json, the other files of the configured storage mode are kept next to it
+     */
+    static ClanStore create(File file, ClanTagConfig config, Logger logger) {
+        if (config.storageMode == ClanTagConfig.StorageMode.MEMORY) {
+            logger.warn("Clans are kept in memory only and will be lost on shutdown (storageMode is MEMORY)");
+            return new InMemoryClanStore();
+        }
+        return new FileClanStore(file, ClanGson.create(!config.compactJson, logger), logger, config);
+    }
+}
@@ -0,0 +1,15 @@
+package mnfu.clantag.storage;
+
+/**
+ * Stored clan data exists but can't be decoded. Like a malformed clans.json, this means saves must
+ * stay off until an admin fixes or removes the file, otherwise it would be overwritten.
+ */
+public class CorruptClanDataException extends RuntimeException {
+    public CorruptClanDataException(String message) {
+        super(message);
+    }
+
+    public CorruptClanDataException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
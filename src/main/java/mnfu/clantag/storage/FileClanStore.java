@@ -0,0 +1,671 @@
+package mnfu.clantag.storage;
+
+import com.google.gson.Gson;
+import mnfu.clantag.Clan;
+import mnfu.clantag.ClanMutation;
+import mnfu.clantag.ClanTagConfig;
+import mnfu.clantag.ClanTagConfig.SaveMode;
+import mnfu.clantag.ClanTagConfig.SnapshotFormat;
+import mnfu.clantag.ClanTagConfig.StorageMode;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * The on-disk {@link ClanStore}, writing clans.json or one of the other layouts picked by {@code storageMode},
+ * either right away or behind the caller's back.
+ *
+ * <p>In {@link StorageMode#SNAPSHOT} mode every save writes the whole map. With
+ * {@link SaveMode#WRITE_BEHIND}, {@link #applyMutation} only keeps the newest clans map and a
+ * single background thread writes it every {@code saveIntervalMillis}, or sooner once
+ * {@code saveDirtyThreshold} changes piled up, so a burst of changes ends up as one write. The manager
+ * never modifies a map after handing it over, so the kept one is a consistent snapshot.</p>
+ *
+ * <p>In {@link StorageMode#JOURNAL} mode every change is appended to a {@link ClanJournal} by the
+ * background thread instead, right away or in write-behind batches. That thread also keeps its own
+ * copy of the clans, built by replaying the same changes, and folds it into a fresh clans.json once
+ * the journal passes {@code journalCompactBytes}. The server thread never touches the disk.</p>
+ *
+ * <p>In {@link StorageMode#SHARDED} mode each clan lives in its own {@link ClanShards} file, and a change
+ * only marks the shards of the clans it touched as dirty. Dirty shards are written like snapshots are,
+ * right away or in write-behind batches.</p>
+ *
+ * <p>In {@link StorageMode#SQLITE} mode the clans live in a {@link ClanDatabase}. The background thread
+ * turns each change into a few row updates, committing a batch of changes as one transaction. Like in
+ * journal mode it keeps its own copy of the clans, and rewrites every row from it if a commit fails.</p>
+ *
+ * <p>Full snapshots are written as clans.json, or as clans.bin when {@code snapshotFormat} is BINARY
+ * (see {@link BinaryClanSnapshot}).</p>
+ *
+ * <p>Switching modes or snapshot formats migrates on the next load: whichever layout holds data is read,
+ * written out in the new layout, and the old files are renamed with a {@code .migrated} suffix.</p>
+ */
+public class FileClanStore implements ClanStore {
+    private final Path target;
+    private final Path binaryTarget;
+    private final Gson gson;
+    private final Logger logger;
+    private final ClanTagConfig config;
+    private final ClanJournal journal;
+    private final ClanShards shards;
+    private final ClanDatabase database;
+    private final ScheduledExecutorService executor;
+
+    private enum Source { NONE, SNAPSHOT, SHARDS, DATABASE }
+
+    private final AtomicReference<Map<UUID, Clan>> pending = new AtomicReference<>();
+    private final Map<UUID, Clan> dirtyShards = new HashMap<>(); // guarded by itself, null values mean deleted
+    private final ConcurrentLinkedQueue<List<ClanMutation>> pendingMutations = new ConcurrentLinkedQueue<>(); // one entry per batch, written together
+    private final AtomicInteger dirtyCount = new AtomicInteger();
+
+    private final Object writeLock = new Object();
+    // everything below is guarded by writeLock
+    private int writesSinceSync = 0;
+    private Map<UUID, Clan> replica = new HashMap<>(); // what clans.json plus the journal, or the database, add up to
+    private boolean databaseStale = false; // a commit failed, the database needs a full rewrite
+    private boolean journalOpen = false;
+    private long journalBase = -1; // checksum of the snapshot the journal on disk belongs to, -1 if none
+    private long loadedChecksum = 0;
+    private Source loadedFrom = Source.NONE;
+    private Path loadedSnapshot = null; // the snapshot file last loaded, null if there was none
+    private long knownChecksum = -1; // checksum of the snapshot as we last read or wrote it, -1 if unknown
+
+    public FileClanStore(File file, Gson gson, Logger logger, ClanTagConfig config) {
+        this.target = file.toPath();
+        this.binaryTarget = target.resolveSibling("clans.bin");
+        this.gson = gson;
+        this.logger = logger;
+        this.config = config;
+        this.journal = new ClanJournal(target.resolveSibling("clans.journal"), logger);
+        this.shards = new ClanShards(target.resolveSibling("shards"), gson, logger);
+        this.database = new ClanDatabase(target.resolveSibling("clans.db"), logger);
+
+        if (config.saveMode == SaveMode.WRITE_BEHIND || config.storageMode == StorageMode.JOURNAL
+                || config.storageMode == StorageMode.SQLITE) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ClanTag Saver");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (config.saveMode == SaveMode.WRITE_BEHIND) {
+                executor.scheduleWithFixedDelay(this::flushPending,
+                        config.saveIntervalMillis, config.saveIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Reads the clans from whichever layout holds them, including journaled changes and any that were
+     * still waiting to be written.
+     *
+     * @throws com.google.gson.JsonParseException if clans.json is malformed
+     * @throws CorruptClanDataException if clans.bin is malformed
+     */
+    @Nullable
+    @Override
+    public Map<UUID, Clan> loadAll() throws IOException {
+        synchronized (writeLock) {
+            // with the journal closed, queued changes still reach disk through a compaction the saver may not have run yet
+            if (journalOpen || config.storageMode == StorageMode.JOURNAL && !pendingMutations.isEmpty()) flushJournal(true);
+            if (database.isOpen()) flushDatabase();
+            flushShards(true);
+
+            if (config.storageMode == StorageMode.SQLITE && database.exists()) {
+                return loadDatabase();
+            }
+
+            // prefer the configured format, but pick up the other one so switching formats migrates
+            Path snapshotPath = snapshotPath();
+            Path otherPath = snapshotPath.equals(binaryTarget) ? target : binaryTarget;
+            loadedSnapshot = Files.exists(snapshotPath) ? snapshotPath : Files.exists(otherPath) ? otherPath : null;
+
+            if (config.storageMode == StorageMode.SHARDED || loadedSnapshot == null) {
+                if (shards.exists()) {
+                    loadedFrom = Source.SHARDS;
+                    loadedSnapshot = null;
+                    loadedChecksum = 0;
+                    journalBase = -1;
+                    return shards.loadAll();
+                }
+            }
+            if (loadedSnapshot == null && !journal.exists() && database.exists()) {
+                return loadDatabase(); // left over from SQLITE mode
+            }
+
+            Map<UUID, Clan> raw = null;
+            loadedChecksum = 0;
+            if (loadedSnapshot != null) {
+                CRC32 crc = new CRC32();
+                raw = binaryTarget.equals(loadedSnapshot)
+                        ? BinaryClanSnapshot.read(binaryTarget, crc)
+                        : ClanJsonReader.readClans(target, crc, logger);
+                loadedChecksum = crc.getValue();
+                knownChecksum = loadedSnapshot.equals(snapshotPath()) ? loadedChecksum : -1;
+            }
+
+            List<ClanMutation> journaled = journal.read(loadedChecksum);
+            journalBase = journaled != null ? loadedChecksum : -1;
+            if (journaled == null) journaled = List.of();
+            if (loadedSnapshot == null && journaled.isEmpty()) {
+                loadedFrom = Source.NONE;
+                return null;
+            }
+
+            if (raw == null) {
+                if (journaled.isEmpty()) return null;
+                raw = new HashMap<>();
+            }
+
+            // changes made since clans.json was last written
+            for (ClanMutation mutation : journaled) {
+                try {
+                    mutation.applyTo(raw);
+                } catch (Exception e) {
+                    logger.error("Error replaying journaled change {}. Skipping.", mutation, e);
+                }
+            }
+            loadedFrom = Source.SNAPSHOT;
+            return raw;
+        }
+    }
+
+    /**
+     * Starts over from freshly loaded clans, and finishes migrating them if they came from another layout.
+     */
+    @Override
+    public void reset(Map<UUID, Clan> clans) {
+        synchronized (writeLock) {
+            pending.set(null);
+            pendingMutations.clear();
+            synchronized (dirtyShards) {
+                dirtyShards.clear();
+            }
+            dirtyCount.set(0);
+            try {
+                switch (config.storageMode) {
+                    case JOURNAL -> {
+                        replica = new HashMap<>(clans);
+                        journal.open(loadedChecksum, journalBase != loadedChecksum);
+                        journalOpen = true;
+                        if (loadedFrom == Source.SHARDS) {
+                            if (compact()) AtomicFiles.retire(shards.directory(), ".migrated");
+                        } else if (loadedFromOtherFormat()) {
+                            if (compact()) retireLoadedSnapshot(clans);
+                        } else if (loadedFrom == Source.DATABASE) {
+                            if (compact()) retireDatabase(clans);
+                        }
+                    }
+                    case SNAPSHOT -> {
+                        // a journal left over from JOURNAL mode was replayed during load, fold it into the snapshot
+                        if (journal.exists() || loadedFrom == Source.SHARDS || loadedFrom == Source.DATABASE || loadedFromOtherFormat()) {
+                            if (writeSnapshot(clans, true)) {
+                                journal.delete();
+                                if (loadedFrom == Source.SHARDS) AtomicFiles.retire(shards.directory(), ".migrated");
+                                if (loadedFrom == Source.DATABASE) retireDatabase(clans);
+                                if (loadedFromOtherFormat()) retireLoadedSnapshot(clans);
+                            }
+                        }
+                    }
+                    case SHARDED -> {
+                        if (loadedFrom == Source.SNAPSHOT || loadedFrom == Source.DATABASE) {
+                            shards.writeAll(clans, true);
+                            journal.delete();
+                            if (loadedFrom == Source.DATABASE) retireDatabase(clans);
+                            if (loadedSnapshot != null) {
+                                AtomicFiles.retire(loadedSnapshot, ".migrated");
+                                logger.info("Migrated {} clan(s) from {} to {}", clans.size(), loadedSnapshot.getFileName(), shards.directory());
+                            }
+                        }
+                    }
+                    case SQLITE -> {
+                        replica = new HashMap<>(clans);
+                        databaseStale = false;
+                        database.open(config.fsyncPolicy);
+                        if (loadedFrom == Source.SNAPSHOT || loadedFrom == Source.SHARDS) {
+                            database.replaceAll(clans);
+                            journal.delete();
+                            Path migrated = loadedFrom == Source.SHARDS ? shards.directory() : loadedSnapshot;
+                            if (migrated != null) {
+                                AtomicFiles.retire(migrated, ".migrated");
+                                logger.info("Migrated {} clan(s) from {} to {}", clans.size(), migrated.getFileName(), database.path().getFileName());
+                            }
+                        }
+                    }
+                }
+            } catch (IOException | SQLException e) {
+                logger.error("Failed to prepare clan storage", e);
+                journalOpen = false;
+            }
+        }
+    }
+
+    /**
+     * Records a change. Must be called from the thread that owns the clans map.
+     */
+    @Override
+    public void applyMutation(ClanMutation mutation, Map<UUID, Clan> clans) {
+        applyMutations(List.of(mutation), clans);
+    }
+
+    /**
+     * Records several changes at once, so they count as one write: one snapshot, one journal sync or one
+     * database transaction.
+     */
+    @Override
+    public void applyMutations(List<ClanMutation> mutations, Map<UUID, Clan> clans) {
+        if (mutations.isEmpty()) return;
+        if (config.storageMode == StorageMode.SHARDED) {
+            synchronized (dirtyShards) {
+                for (ClanMutation mutation : mutations) {
+                    dirtyShards.put(mutation.clanId(), clans.get(mutation.clanId()));
+                }
+            }
+            if (executor == null || executor.isShutdown()) {
+                flushShards(false);
+            } else if (reachesDirtyThreshold(mutations.size())) {
+                submit(this::flushPending);
+            }
+            return;
+        }
+        if (config.storageMode != StorageMode.JOURNAL && config.storageMode != StorageMode.SQLITE) {
+            markDirty(clans);
+            return;
+        }
+        pendingMutations.add(List.copyOf(mutations));
+        if (config.saveMode == SaveMode.IMMEDIATE || reachesDirtyThreshold(mutations.size())) {
+            submit(this::flushPending);
+        }
+    }
+
+    /**
+     * counts changes towards the dirty threshold, and tells whether these ones reached it.
+     */
+    private boolean reachesDirtyThreshold(int changes) {
+        int count = dirtyCount.addAndGet(changes);
+        return count >= config.saveDirtyThreshold && count - changes < config.saveDirtyThreshold;
+    }
+
+    /**
+     * Writes the whole clans map. In journal mode this compacts the journal, in sqlite mode it rewrites every row.
+     */
+    @Override
+    public void flush(Map<UUID, Clan> clans) {
+        if (config.storageMode == StorageMode.SHARDED) {
+            synchronized (dirtyShards) {
+                dirtyShards.putAll(clans);
+            }
+            submit(this::flushPending);
+            return;
+        }
+        if (config.storageMode == StorageMode.SQLITE) {
+            submit(() -> {
+                synchronized (writeLock) {
+                    databaseStale = true;
+                    flushDatabase();
+                }
+            });
+            return;
+        }
+        if (config.storageMode != StorageMode.JOURNAL) {
+            markDirty(clans);
+            return;
+        }
+        submit(() -> {
+            synchronized (writeLock) {
+                flushJournal(false);
+                compact();
+            }
+        });
+    }
+
+    /**
+     * Stops the background thread and writes the given clans one last time, forced to disk.
+     */
+    @Override
+    public void close(Map<UUID, Clan> clans) {
+        stopSaver();
+        synchronized (writeLock) {
+            pending.set(null);
+            if (config.storageMode == StorageMode.SQLITE) {
+                flushDatabase(); // anything the background thread didn't get to
+                database.close();
+                return;
+            }
+            pendingMutations.clear();
+            if (config.storageMode == StorageMode.JOURNAL) {
+                replica = new HashMap<>(clans);
+                compact();
+                journal.close();
+            } else if (config.storageMode == StorageMode.SHARDED) {
+                flushShards(true);
+            } else {
+                writeSnapshot(clans, true);
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread and closes the journal and database, writing nothing.
+     */
+    @Override
+    public void close() {
+        stopSaver();
+        synchronized (writeLock) {
+            pending.set(null);
+            pendingMutations.clear();
+            journal.close();
+            database.close();
+        }
+    }
+
+    private void stopSaver() {
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Clan saver did not stop in time, closing anyway");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Replaces everything stored with the given clans, on the calling thread. Anything not yet written is dropped.
+     */
+    @Override
+    public boolean replaceAll(Map<UUID, Clan> clans) {
+        synchronized (writeLock) {
+            pending.set(null);
+            pendingMutations.clear();
+            synchronized (dirtyShards) {
+                dirtyShards.clear();
+            }
+            dirtyCount.set(0);
+            switch (config.storageMode) {
+                case JOURNAL -> {
+                    replica = new HashMap<>(clans);
+                    return compact();
+                }
+                case SQLITE -> {
+                    replica = new HashMap<>(clans);
+                    databaseStale = true;
+                    flushDatabase();
+                    return !databaseStale;
+                }
+                case SHARDED -> {
+                    try {
+                        shards.writeAll(clans, true);
+                        return true;
+                    } catch (IOException e) {
+                        logger.error("Failed to save clan shards", e);
+                        return false;
+                    }
+                }
+                default -> {
+                    return writeSnapshot(clans, true);
+                }
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public Path editableFile() {
+        return config.storageMode == StorageMode.SNAPSHOT || config.storageMode == StorageMode.JOURNAL ? snapshotPath() : null;
+    }
+
+    @Override
+    public boolean changedOnDisk() {
+        Path path = editableFile();
+        if (path == null) return false;
+        try {
+            long checksum = ClanJournal.checksum(Files.readAllBytes(path));
+            synchronized (writeLock) {
+                return checksum != knownChecksum;
+            }
+        } catch (NoSuchFileException e) {
+            return false; // mid-replace, or deleted. either way there is nothing to reload
+        } catch (IOException e) {
+            logger.warn("Failed to check {} for changes", path, e);
+            return false;
+        }
+    }
+
+    private Path snapshotPath() {
+        return config.snapshotFormat == SnapshotFormat.BINARY ? binaryTarget : target;
+    }
+
+    private boolean loadedFromOtherFormat() {
+        return loadedFrom == Source.SNAPSHOT && loadedSnapshot != null && !loadedSnapshot.equals(snapshotPath());
+    }
+
+    private void retireLoadedSnapshot(Map<UUID, Clan> clans) throws IOException {
+        AtomicFiles.retire(loadedSnapshot, ".migrated");
+        logger.info("Migrated {} clan(s) from {} to {}", clans.size(), loadedSnapshot.getFileName(), snapshotPath().getFileName());
+        loadedSnapshot = snapshotPath();
+    }
+
+    private void markDirty(Map<UUID, Clan> clans) {
+        if (executor == null || executor.isShutdown()) {
+            writeSnapshot(clans, false);
+            return;
+        }
+        pending.set(clans);
+        if (dirtyCount.incrementAndGet() == config.saveDirtyThreshold) {
+            submit(this::flushPending);
+        }
+    }
+
+    private void submit(Runnable task) {
+        if (executor != null) {
+            try {
+                executor.execute(task);
+                return;
+            } catch (RejectedExecutionException ignored) {} // shutting down, just do it here
+        }
+        task.run();
+    }
+
+    private void flushPending() {
+        synchronized (writeLock) {
+            if (config.storageMode == StorageMode.JOURNAL) {
+                flushJournal(false);
+                return;
+            }
+            if (config.storageMode == StorageMode.SHARDED) {
+                flushShards(false);
+                return;
+            }
+            if (config.storageMode == StorageMode.SQLITE) {
+                flushDatabase();
+                return;
+            }
+            Map<UUID, Clan> snapshot = pending.getAndSet(null);
+            if (snapshot == null) return;
+            dirtyCount.set(0);
+            writeSnapshot(snapshot, false);
+        }
+    }
+
+    // caller holds writeLock
+    private void flushJournal(boolean forceSync) {
+        dirtyCount.set(0);
+        int appended = 0;
+        List<ClanMutation> mutations;
+        while ((mutations = pendingMutations.poll()) != null) {
+            for (ClanMutation mutation : mutations) {
+                mutation.applyTo(replica);
+                if (!journalOpen) continue;
+                try {
+                    journal.append(mutation);
+                    appended++;
+                } catch (IOException e) {
+                    logger.error("Failed to append to clans.journal, will retry by rewriting clans.json", e);
+                    journalOpen = false;
+                }
+            }
+        }
+
+        if (journalOpen && (appended > 0 || forceSync)) {
+            boolean sync = forceSync || shouldSync();
+            try {
+                if (sync) journal.sync();
+                writesSinceSync = sync ? 0 : writesSinceSync + 1;
+            } catch (IOException e) {
+                logger.error("Failed to sync clans.journal", e);
+            }
+        }
+
+        if (!journalOpen || journal.size() >= config.journalCompactBytes) {
+            compact();
+        }
+    }
+
+    // caller holds writeLock
+    private void flushDatabase() {
+        dirtyCount.set(0);
+        List<ClanMutation> batch = new ArrayList<>();
+        List<ClanMutation> mutations;
+        while ((mutations = pendingMutations.poll()) != null) {
+            for (ClanMutation mutation : mutations) {
+                // only write what actually changed the clans, so the rows can't drift from the replica
+                if (mutation.applyTo(replica) != null || mutation instanceof ClanMutation.Delete) batch.add(mutation);
+            }
+        }
+
+        try {
+            if (!database.isOpen()) {
+                database.open(config.fsyncPolicy);
+                databaseStale = true;
+            }
+            if (databaseStale) {
+                database.replaceAll(replica);
+                databaseStale = false;
+            } else if (!batch.isEmpty()) {
+                database.apply(batch);
+            }
+        } catch (IOException | SQLException e) {
+            logger.error("Failed to save clans to {}, will retry by rewriting it", database.path().getFileName(), e);
+            databaseStale = true;
+        }
+    }
+
+    // caller holds writeLock
+    private Map<UUID, Clan> loadDatabase() throws IOException {
+        loadedFrom = Source.DATABASE;
+        loadedSnapshot = null;
+        loadedChecksum = 0;
+        journalBase = -1;
+        database.open(config.fsyncPolicy);
+        return database.loadAll();
+    }
+
+    private void retireDatabase(Map<UUID, Clan> clans) throws IOException {
+        database.close();
+        AtomicFiles.retire(database.path(), ".migrated");
+        for (String suffix : new String[]{"-wal", "-shm"}) { // normally removed on close, unless another connection is still open
+            Path sidecar = database.path().resolveSibling(database.path().getFileName() + suffix);
+            if (Files.exists(sidecar)) AtomicFiles.retire(sidecar, ".migrated");
+        }
+        logger.info("Migrated {} clan(s) from {}", clans.size(), database.path().getFileName());
+    }
+
+    private void flushShards(boolean forceSync) {
+        synchronized (writeLock) {
+            Map<UUID, Clan> dirty;
+            synchronized (dirtyShards) {
+                if (dirtyShards.isEmpty()) return;
+                dirty = new HashMap<>(dirtyShards);
+                dirtyShards.clear();
+            }
+            dirtyCount.set(0);
+
+            boolean sync = forceSync || shouldSync();
+            for (Map.Entry<UUID, Clan> entry : dirty.entrySet()) {
+                try {
+                    shards.write(entry.getKey(), entry.getValue(), sync);
+                } catch (IOException e) {
+                    logger.error("Failed to save clan shard {}", entry.getKey(), e);
+                    synchronized (dirtyShards) {
+                        dirtyShards.putIfAbsent(entry.getKey(), entry.getValue()); // try again next flush
+                    }
+                }
+            }
+            writesSinceSync = sync ? 0 : writesSinceSync + 1;
+        }
+    }
+
+    // caller holds writeLock
+    private boolean compact() {
+        byte[] bytes = encode(replica);
+        if (!writeAtomically(bytes, true)) return false; // the old journal still matches the old snapshot
+        // a crash between these two steps is fine, the old journal no longer matches the new snapshot
+        try {
+            long checksum = ClanJournal.checksum(bytes);
+            journal.open(checksum, true);
+            journalBase = checksum;
+            journalOpen = true;
+            writesSinceSync = 0;
+        } catch (IOException e) {
+            logger.error("Failed to start a new clans.journal", e);
+            journalOpen = false;
+        }
+        return true;
+    }
+
+    private boolean writeSnapshot(Map<UUID, Clan> clans, boolean forceSync) {
+        synchronized (writeLock) {
+            boolean sync = forceSync || shouldSync();
+            boolean written = writeAtomically(encode(clans), sync);
+            if (written) {
+                writesSinceSync = sync ? 0 : writesSinceSync + 1;
+            }
+            return written;
+        }
+    }
+
+    // caller holds writeLock
+    private boolean shouldSync() {
+        return switch (config.fsyncPolicy) {
+            case PER_WRITE -> true;
+            case BATCHED -> writesSinceSync + 1 >= config.fsyncBatchSize;
+            case OS_MANAGED -> false;
+        };
+    }
+
+    private byte[] encode(Map<UUID, Clan> clans) {
+        if (config.snapshotFormat == SnapshotFormat.BINARY) return BinaryClanSnapshot.encode(clans.values());
+        return gson.toJson(clans).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private boolean writeAtomically(byte[] bytes, boolean sync) {
+        try {
+            AtomicFiles.write(snapshotPath(), bytes, sync, logger);
+            knownChecksum = ClanJournal.checksum(bytes);
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to save clans", e);
+            return false;
+        }
+    }
+}
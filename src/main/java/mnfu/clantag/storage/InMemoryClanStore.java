@@ -0,0 +1,53 @@
+package mnfu.clantag.storage;
+
+import mnfu.clantag.Clan;
+import mnfu.clantag.ClanMutation;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps nothing but a reference to the manager's clans, so changes cost nothing to store and
+ * nothing survives a restart. A reload hands back a copy of the current clans.
+ *
+ * <p>Meant for measuring {@link mnfu.clantag.ClanManager} without any disk I/O, and for trying things
+ * out on a test server.</p>
+ */
+public class InMemoryClanStore implements ClanStore {
+    private Map<UUID, Clan> clans; // the manager's newest clans, null until the first load or change
+
+    @Nullable
+    @Override
+    public synchronized Map<UUID, Clan> loadAll() {
+        return clans != null ? new HashMap<>(clans) : null;
+    }
+
+    @Override
+    public synchronized void reset(Map<UUID, Clan> clans) {
+        this.clans = clans;
+    }
+
+    @Override
+    public synchronized void applyMutation(ClanMutation mutation, Map<UUID, Clan> clans) {
+        this.clans = clans;
+    }
+
+    @Override
+    public synchronized void flush(Map<UUID, Clan> clans) {
+        this.clans = clans;
+    }
+
+    @Override
+    public synchronized boolean replaceAll(Map<UUID, Clan> clans) {
+        this.clans = clans;
+        return true;
+    }
+
+    @Override
+    public void close(Map<UUID, Clan> clans) {}
+
+    @Override
+    public void close() {}
+}